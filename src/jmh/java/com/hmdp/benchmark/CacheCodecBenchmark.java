@@ -0,0 +1,126 @@
+package com.hmdp.benchmark;
+
+import cn.hutool.json.JSONObject;
+import cn.hutool.json.JSONUtil;
+import com.hmdp.entity.Shop;
+import com.hmdp.entity.ShopType;
+import com.hmdp.utils.CacheCodec;
+import com.hmdp.utils.JsonCacheCodec;
+import com.hmdp.utils.RedisData;
+import com.hmdp.utils.SmileCacheCodec;
+import org.openjdk.jmh.annotations.*;
+
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * CacheClient 逻辑过期缓存的编解码开销：原 hutool RedisData JSON 与 CacheCodec 实现对比
+ * json 模式写入原格式，读取与 hutoolDecode 相同；编码后的字节数记录在 jmh 结果的辅助计数器中
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CacheCodecBenchmark {
+
+    @Param({"shop", "shopType"})
+    private String entity;
+
+    private Object value;
+    private Class<?> type;
+    private long expireMillis;
+
+    private final CacheCodec jsonCodec = new JsonCacheCodec();
+    private final CacheCodec smileCodec = new SmileCacheCodec();
+
+    private String hutoolRedisData;
+    private byte[] smileBytes;
+    private int hutoolBytes;
+    private int jsonCodecBytes;
+
+    /**
+     * 各格式写入 redis 的字节数，每轮迭代的值见结果中的 rawData，score 为各轮之和
+     */
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    public static class EncodedSize {
+        public long hutoolBytes;
+        public long jsonCodecBytes;
+        public long smileCodecBytes;
+    }
+
+    @Setup
+    public void setup() {
+        if ("shop".equals(entity)) {
+            value = new Shop()
+                    .setId(1L).setName("103茶餐厅").setTypeId(1L)
+                    .setImages("https://qcloud.dpfile.com/pc/jiclIsCKmOI2arxKN1Uf0Hx3PucIJH8q0QSz-Z8llzcN56-_QiKuOvyio1OOxsRtFoXqu0G3iT2T27qat3WhLVEuLYk00OmSS1IdNpm8K8sG4JN9RIm2mTKcbLtc2o2vfCF2ubeXzk49OsGrXt_KYDCngOyCwZK-s3fqawWswzk.jpg")
+                    .setArea("大关").setAddress("金华路锦昌文华苑29号")
+                    .setX(120.149192).setY(30.316078)
+                    .setAvgPrice(80L).setSold(4215).setComments(3035).setScore(37)
+                    .setOpenHours("10:00-22:00")
+                    .setCreateTime(LocalDateTime.now()).setUpdateTime(LocalDateTime.now());
+            type = Shop.class;
+        } else {
+            value = new ShopType()
+                    .setId(1L).setName("美食").setIcon("/types/ms.png").setSort(1)
+                    .setCreateTime(LocalDateTime.now()).setUpdateTime(LocalDateTime.now());
+            type = ShopType.class;
+        }
+        expireMillis = System.currentTimeMillis() + TimeUnit.MINUTES.toMillis(30);
+
+        hutoolRedisData = hutoolEncode();
+        smileBytes = smileCodec.encodeLogicalExpire(expireMillis, 0, value);
+        hutoolBytes = hutoolRedisData.getBytes(StandardCharsets.UTF_8).length;
+        jsonCodecBytes = jsonCodecEncode().length;
+    }
+
+    // 原 setLogicalExpire 写入路径
+    @Benchmark
+    public String hutoolEncode() {
+        RedisData redisData = new RedisData();
+        redisData.setData(value);
+        redisData.setExpireTime(LocalDateTime.now().plusMinutes(30));
+        return JSONUtil.toJsonStr(redisData);
+    }
+
+    // 原 getLogicalExpire 读取路径：两次解析
+    @Benchmark
+    public Object hutoolDecode() {
+        RedisData redisData = JSONUtil.toBean(hutoolRedisData, RedisData.class);
+        if (redisData.getExpireTime().isBefore(LocalDateTime.now())) {
+            return null;
+        }
+        return JSONUtil.toBean((JSONObject) redisData.getData(), type);
+    }
+
+    @Benchmark
+    public byte[] jsonCodecEncode() {
+        return jsonCodec.encodeLogicalExpire(expireMillis, 0, value);
+    }
+
+    @Benchmark
+    public byte[] smileCodecEncode(EncodedSize size) {
+        byte[] bytes = smileCodec.encodeLogicalExpire(expireMillis, 0, value);
+        // 计数器每轮迭代前清零，这里赋值而不是累加
+        size.hutoolBytes = hutoolBytes;
+        size.jsonCodecBytes = jsonCodecBytes;
+        size.smileCodecBytes = bytes.length;
+        return bytes;
+    }
+
+    @Benchmark
+    public Object smileCodecDecode() {
+        return decode(smileCodec, smileBytes);
+    }
+
+    private Object decode(CacheCodec codec, byte[] bytes) {
+        if (RedisData.expireMillis(bytes) < System.currentTimeMillis()) {
+            return null;
+        }
+        return codec.decode(bytes, RedisData.HEADER_LENGTH, bytes.length - RedisData.HEADER_LENGTH, type);
+    }
+}
@@ -0,0 +1,67 @@
+package com.hmdp.benchmark;
+
+import cn.hutool.core.util.ReflectUtil;
+import com.hmdp.utils.IdWorker;
+import com.hmdp.utils.RedisIdWorker;
+import com.hmdp.utils.SnowflakeIdWorker;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.data.redis.connection.lettuce.LettuceConnectionFactory;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import redis.embedded.RedisServer;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 生成一个订单id的耗时：redis 每次 INCR，segment 号段本地分配，snowflake 完全本地
+ * 使用本机嵌入式 redis，没有跨机网络往返，真实部署下 redis 模式的耗时会更高
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class IdWorkerBenchmark {
+
+    private static final int REDIS_PORT = 6391;
+
+    @Param({"redis", "segment", "snowflake"})
+    private String mode;
+
+    private RedisServer redisServer;
+    private LettuceConnectionFactory connectionFactory;
+    private IdWorker idWorker;
+
+    @Setup
+    public void setup() throws IOException {
+        redisServer = new RedisServer(REDIS_PORT);
+        redisServer.start();
+        connectionFactory = new LettuceConnectionFactory("localhost", REDIS_PORT);
+        connectionFactory.afterPropertiesSet();
+        StringRedisTemplate stringRedisTemplate = new StringRedisTemplate(connectionFactory);
+
+        // 与 Spring 注入相同的字段
+        if ("snowflake".equals(mode)) {
+            idWorker = new SnowflakeIdWorker();
+            ReflectUtil.setFieldValue(idWorker, "stringRedisTemplate", stringRedisTemplate);
+            ReflectUtil.invoke(idWorker, "init");
+        } else {
+            idWorker = new RedisIdWorker();
+            ReflectUtil.setFieldValue(idWorker, "stringRedisTemplate", stringRedisTemplate);
+            ReflectUtil.setFieldValue(idWorker, "mode", mode);
+        }
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        ReflectUtil.invoke(idWorker, "destroy");
+        connectionFactory.destroy();
+        redisServer.stop();
+    }
+
+    @Benchmark
+    public long nextId() {
+        return idWorker.nextId("seckillOrder");
+    }
+}
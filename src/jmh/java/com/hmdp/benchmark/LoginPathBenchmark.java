@@ -0,0 +1,74 @@
+package com.hmdp.benchmark;
+
+import cn.hutool.core.bean.BeanUtil;
+import cn.hutool.core.bean.copier.CopyOptions;
+import com.hmdp.dto.UserDTO;
+import com.hmdp.utils.PasswordEncoder;
+import com.hmdp.utils.RegexUtils;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 登录与每次请求鉴权路径上的本地开销：手机号校验、密码校验、
+ * UserServiceImpl.login 中 UserDTO 转 hash、RefreshTokenInterceptor 中 hash 转 UserDTO
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class LoginPathBenchmark {
+
+    private final String validPhone = "13686869696";
+    private final String invalidPhone = "1368686969a";
+    private final String rawPassword = "123456";
+    private String encodedPassword;
+
+    private UserDTO userDTO;
+    private Map<Object, Object> userMap;
+
+    @Setup
+    public void setup() {
+        encodedPassword = PasswordEncoder.encode(rawPassword);
+        userDTO = new UserDTO();
+        userDTO.setId(1010L);
+        userDTO.setNickName("user_a8s1k2l3d9");
+        userDTO.setIcon("/imgs/icons/kls.jpg");
+        userMap = new HashMap<>(beanToMap());
+    }
+
+    @Benchmark
+    public boolean phoneValid() {
+        return RegexUtils.isPhoneInvalid(validPhone);
+    }
+
+    @Benchmark
+    public boolean phoneInvalid() {
+        return RegexUtils.isPhoneInvalid(invalidPhone);
+    }
+
+    @Benchmark
+    public Boolean passwordMatches() {
+        return PasswordEncoder.matches(encodedPassword, rawPassword);
+    }
+
+    // login 写入 redis 前
+    @Benchmark
+    public Map<String, Object> beanToMap() {
+        return BeanUtil.beanToMap(userDTO, new HashMap<>(),
+                CopyOptions.create()
+                        .setIgnoreNullValue(true)
+                        .setFieldValueEditor((fieldName, fieldValue) -> fieldValue.toString())
+        );
+    }
+
+    // 每次请求从 redis 读出后
+    @Benchmark
+    public UserDTO fillBeanWithMap() {
+        return BeanUtil.fillBeanWithMap(userMap, new UserDTO(), false);
+    }
+}
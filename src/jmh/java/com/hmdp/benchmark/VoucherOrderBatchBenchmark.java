@@ -0,0 +1,105 @@
+package com.hmdp.benchmark;
+
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.Logger;
+import com.baomidou.mybatisplus.extension.spring.MybatisSqlSessionFactoryBean;
+import com.hmdp.entity.VoucherOrder;
+import com.hmdp.mapper.SeckillVoucherMapper;
+import com.hmdp.mapper.VoucherOrderMapper;
+import com.zaxxer.hikari.HikariDataSource;
+import org.apache.ibatis.session.SqlSession;
+import org.apache.ibatis.session.SqlSessionFactory;
+import org.apache.ibatis.transaction.jdbc.JdbcTransactionFactory;
+import org.openjdk.jmh.annotations.*;
+import org.slf4j.LoggerFactory;
+import org.springframework.core.io.support.PathMatchingResourcePatternResolver;
+
+import java.sql.Connection;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 订单落库吞吐量（orders/s）随批大小的变化
+ * 每次调用写入 ORDERS 个订单，按 batchSize 分批：每批一个事务，与 VoucherOrderServiceImpl.createVoucherOrders 相同，
+ * 依次执行 VoucherOrderMapper.selectBought 查重、SeckillVoucherMapper.decreaseStock、VoucherOrderMapper.insertBatch，
+ * 语句来自 mapper/*.xml。batchSize=1 即原来的逐单写入。订单表带 uk_user_voucher 唯一索引，与压测表结构相同
+ * 使用 H2 内存库（MySQL 模式），没有网络往返，真实 MySQL 下批量的收益会更明显
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class VoucherOrderBatchBenchmark {
+
+    private static final int ORDERS = 1000;
+    private static final long VOUCHER_ID = 1L;
+
+    @Param({"1", "10", "100", "500"})
+    private int batchSize;
+
+    private HikariDataSource dataSource;
+    private SqlSessionFactory sqlSessionFactory;
+    private long nextId;
+
+    @Setup
+    public void setup() throws Exception {
+        // no logback config on the benchmark classpath, default DEBUG would dominate the timing
+        ((Logger) LoggerFactory.getLogger(Logger.ROOT_LOGGER_NAME)).setLevel(Level.WARN);
+
+        dataSource = new HikariDataSource();
+        dataSource.setJdbcUrl("jdbc:h2:mem:orders_" + batchSize + ";MODE=MySQL;DB_CLOSE_DELAY=-1");
+        dataSource.setMaximumPoolSize(1);
+        try (Connection connection = dataSource.getConnection(); Statement st = connection.createStatement()) {
+            st.execute("CREATE TABLE tb_seckill_voucher (voucher_id BIGINT PRIMARY KEY, stock BIGINT NOT NULL)");
+            st.execute("CREATE TABLE tb_voucher_order (id BIGINT PRIMARY KEY, user_id BIGINT NOT NULL, voucher_id BIGINT NOT NULL, " +
+                    "pay_type TINYINT DEFAULT 1, status TINYINT DEFAULT 1, create_time TIMESTAMP DEFAULT CURRENT_TIMESTAMP, " +
+                    "CONSTRAINT uk_user_voucher UNIQUE (user_id, voucher_id))");
+            st.execute("INSERT INTO tb_seckill_voucher VALUES (" + VOUCHER_ID + ", " + Long.MAX_VALUE / 2 + ")");
+        }
+
+        MybatisSqlSessionFactoryBean factoryBean = new MybatisSqlSessionFactoryBean();
+        factoryBean.setDataSource(dataSource);
+        factoryBean.setTransactionFactory(new JdbcTransactionFactory());
+        factoryBean.setTypeAliasesPackage("com.hmdp.entity");
+        factoryBean.setMapperLocations(new PathMatchingResourcePatternResolver().getResources("classpath*:mapper/*.xml"));
+        sqlSessionFactory = factoryBean.getObject();
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        try (Connection connection = dataSource.getConnection(); Statement st = connection.createStatement()) {
+            st.execute("DROP ALL OBJECTS");
+        }
+        dataSource.close();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(ORDERS)
+    public int persistOrders() {
+        int existing = 0;
+        for (int done = 0; done < ORDERS; done += batchSize) {
+            int n = Math.min(batchSize, ORDERS - done);
+            // user id = order id, never bought before
+            List<VoucherOrder> orders = new ArrayList<>(n);
+            List<Long> userIds = new ArrayList<>(n);
+            for (int i = 0; i < n; i++) {
+                long id = ++nextId;
+                orders.add(VoucherOrder.builder().id(id).userId(id).voucherId(VOUCHER_ID).build());
+                userIds.add(id);
+            }
+            try (SqlSession session = sqlSessionFactory.openSession(false)) {
+                VoucherOrderMapper voucherOrderMapper = session.getMapper(VoucherOrderMapper.class);
+                existing += voucherOrderMapper.selectBought(Collections.singleton(VOUCHER_ID), userIds).size();
+                session.getMapper(SeckillVoucherMapper.class).decreaseStock(VOUCHER_ID, n);
+                voucherOrderMapper.insertBatch(orders);
+                session.commit();
+            }
+        }
+        return existing;
+    }
+}
@@ -0,0 +1,318 @@
+package com.hmdp.loadtest;
+
+import cn.hutool.core.io.IoUtil;
+import cn.hutool.json.JSONObject;
+import cn.hutool.json.JSONUtil;
+import com.hmdp.HmDianPingApplication;
+import com.hmdp.entity.Voucher;
+import com.hmdp.service.IVoucherService;
+import com.hmdp.utils.SeckillVoucherCache;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.data.redis.connection.stream.StreamInfo;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.jdbc.core.JdbcTemplate;
+import redis.embedded.RedisServer;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Writer;
+import java.net.HttpURLConnection;
+import java.net.ServerSocket;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static com.hmdp.utils.RedisConstants.*;
+
+/**
+ * 秒杀压测：启动内嵌 redis 与 H2（MySQL 模式），以真实 HTTP 请求模拟大量不同用户抢购同一张秒杀券
+ * 输出吞吐量、延迟分位数、超卖数和重复下单数，并追加到 target/loadtest-results.jsonl 便于对比不同实现
+ *
+ * 参数（-D）：users 用户数，attempts 每个用户请求次数，stock 库存，shards 库存分片数，
+ * concurrency 并发请求数，label 本次结果的标签；应用配置同样可以用 -D 覆盖
+ */
+public class SeckillLoadTest {
+
+    public static void main(String[] args) throws Exception {
+        int users = Integer.getInteger("users", 5000);
+        int attempts = Integer.getInteger("attempts", 2);
+        int stock = Integer.getInteger("stock", 100);
+        int shards = Integer.getInteger("shards", 1);
+        int concurrency = Integer.getInteger("concurrency", 200);
+        String label = System.getProperty("label", "default");
+        System.setProperty("http.maxConnections", String.valueOf(concurrency));
+
+        RedisServer redis = new RedisServer(freePort());
+        redis.start();
+        ConfigurableApplicationContext ctx = null;
+        try {
+            // 覆盖 application.yaml，命令行 -D 指定的优先
+            appProperties(redis.ports().get(0)).forEach((k, v) -> {
+                if (System.getProperty((String) k) == null) {
+                    System.setProperty((String) k, (String) v);
+                }
+            });
+            ctx = new SpringApplicationBuilder(HmDianPingApplication.class).run(args);
+            String baseUrl = "http://127.0.0.1:" + ctx.getEnvironment().getProperty("local.server.port");
+            StringRedisTemplate redisTemplate = ctx.getBean(StringRedisTemplate.class);
+            JdbcTemplate jdbcTemplate = ctx.getBean(JdbcTemplate.class);
+
+            Long voucherId = addSeckillVoucher(ctx.getBean(IVoucherService.class), stock, shards);
+            List<String> tokens = createTokens(redisTemplate, users);
+
+            // 每个用户请求 attempts 次，打乱顺序
+            List<String> requests = new ArrayList<>(users * attempts);
+            for (int i = 0; i < attempts; i++) {
+                requests.addAll(tokens);
+            }
+            Collections.shuffle(requests);
+
+            Stats stats = run(baseUrl + "/voucher-order/seckill/" + voucherId, requests, concurrency);
+            boolean drained = awaitOrdersDrained(redisTemplate, TimeUnit.SECONDS.toMillis(30));
+            report(label, users, attempts, stock, shards, concurrency, stats, drained,
+                    jdbcTemplate, redisTemplate, voucherId);
+        } finally {
+            if (ctx != null) {
+                ctx.close();
+            }
+            redis.stop();
+        }
+    }
+
+    private static Properties appProperties(int redisPort) {
+        Properties props = new Properties();
+        props.setProperty("server.port", "0");
+        props.setProperty("spring.datasource.driver-class-name", "org.h2.Driver");
+        props.setProperty("spring.datasource.url", "jdbc:h2:mem:hmdp;MODE=MySQL;DB_CLOSE_DELAY=-1;DATABASE_TO_LOWER=TRUE");
+        props.setProperty("spring.datasource.username", "sa");
+        props.setProperty("spring.datasource.password", "");
+        props.setProperty("spring.datasource.schema", "classpath:loadtest/schema.sql");
+        props.setProperty("spring.datasource.initialization-mode", "always");
+        props.setProperty("spring.redis.host", "127.0.0.1");
+        props.setProperty("spring.redis.port", String.valueOf(redisPort));
+        props.setProperty("logging.level.com.hmdp", "warn");
+        return props;
+    }
+
+    private static Long addSeckillVoucher(IVoucherService voucherService, int stock, int shards) {
+        Voucher voucher = new Voucher()
+                .setShopId(1L)
+                .setTitle("压测秒杀券")
+                .setPayValue(8000L)
+                .setActualValue(10000L)
+                .setType(1)
+                .setStatus(1)
+                .setStock(stock)
+                .setShards(shards)
+                .setBeginTime(LocalDateTime.now().minusMinutes(1))
+                .setEndTime(LocalDateTime.now().plusHours(1));
+        voucherService.addSeckillVoucher(voucher);
+        return voucher.getId();
+    }
+
+    // 直接写入登录态，与 UserServiceImpl.login 的格式相同
+    private static List<String> createTokens(StringRedisTemplate redisTemplate, int users) {
+        List<String> tokens = new ArrayList<>(users);
+        for (long userId = 1; userId <= users; userId++) {
+            String token = "loadtest-" + userId;
+            Map<String, String> userMap = new HashMap<>();
+            userMap.put("id", String.valueOf(userId));
+            userMap.put("nickName", "user_" + userId);
+            redisTemplate.opsForHash().putAll(LOGIN_USER_TOKEN + token, userMap);
+            tokens.add(token);
+        }
+        return tokens;
+    }
+
+    private static Stats run(String url, List<String> requests, int concurrency) throws InterruptedException {
+        Stats stats = new Stats(requests.size());
+        ExecutorService executor = Executors.newFixedThreadPool(concurrency);
+        CountDownLatch done = new CountDownLatch(requests.size());
+        long begin = System.nanoTime();
+        for (int i = 0; i < requests.size(); i++) {
+            int index = i;
+            String token = requests.get(i);
+            executor.execute(() -> {
+                try {
+                    stats.record(index, post(url, token));
+                } finally {
+                    done.countDown();
+                }
+            });
+        }
+        done.await();
+        stats.elapsedNanos = System.nanoTime() - begin;
+        executor.shutdown();
+        return stats;
+    }
+
+    private static Response post(String url, String token) {
+        long begin = System.nanoTime();
+        try {
+            HttpURLConnection conn = (HttpURLConnection) new URL(url).openConnection();
+            conn.setRequestMethod("POST");
+            conn.setRequestProperty("authorization", token);
+            int status = conn.getResponseCode();
+            InputStream in = status < 400 ? conn.getInputStream() : conn.getErrorStream();
+            String body = in == null ? "" : IoUtil.read(in, StandardCharsets.UTF_8);
+            return new Response(status, body, System.nanoTime() - begin);
+        } catch (IOException e) {
+            return new Response(-1, e.toString(), System.nanoTime() - begin);
+        }
+    }
+
+    // 等待订单消息全部落库并确认
+    private static boolean awaitOrdersDrained(StringRedisTemplate redisTemplate, long timeoutMillis) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + timeoutMillis;
+        while (System.currentTimeMillis() < deadline) {
+            if (SeckillVoucherCache.streamKeys().stream().allMatch(key -> drained(redisTemplate, key))) {
+                return true;
+            }
+            Thread.sleep(200);
+        }
+        return false;
+    }
+
+    private static boolean drained(StringRedisTemplate redisTemplate, String streamKey) {
+        if (!Boolean.TRUE.equals(redisTemplate.hasKey(streamKey))) {
+            return true;
+        }
+        StreamInfo.XInfoStream stream = redisTemplate.opsForStream().info(streamKey);
+        StreamInfo.XInfoGroups groups = redisTemplate.opsForStream().groups(streamKey);
+        return groups.size() > 0 && groups.stream().allMatch(g -> g.pendingCount() == 0
+                && stream.lastGeneratedId().equals(g.lastDeliveredId()));
+    }
+
+    private static void report(String label, int users, int attempts, int stock, int shards, int concurrency,
+                               Stats stats, boolean drained, JdbcTemplate jdbcTemplate,
+                               StringRedisTemplate redisTemplate, Long voucherId) throws IOException {
+        Long orders = jdbcTemplate.queryForObject(
+                "SELECT COUNT(*) FROM tb_voucher_order WHERE voucher_id = ?", Long.class, voucherId);
+        Long duplicateUsers = jdbcTemplate.queryForObject(
+                "SELECT COUNT(*) FROM (SELECT user_id FROM tb_voucher_order WHERE voucher_id = ? " +
+                        "GROUP BY user_id HAVING COUNT(*) > 1) t", Long.class, voucherId);
+        Integer dbStock = jdbcTemplate.queryForObject(
+                "SELECT stock FROM tb_seckill_voucher WHERE voucher_id = ?", Integer.class, voucherId);
+
+        long[] latencies = stats.sortedLatencies();
+        double seconds = stats.elapsedNanos / 1e9;
+        JSONObject result = new JSONObject(new LinkedHashMap<>())
+                .set("label", label)
+                .set("users", users)
+                .set("attempts", attempts)
+                .set("stock", stock)
+                .set("shards", shards)
+                .set("concurrency", concurrency)
+                .set("requests", latencies.length)
+                .set("seconds", round(seconds))
+                .set("throughput", round(latencies.length / seconds))
+                .set("p50Ms", millis(percentile(latencies, 0.50)))
+                .set("p90Ms", millis(percentile(latencies, 0.90)))
+                .set("p99Ms", millis(percentile(latencies, 0.99)))
+                .set("p999Ms", millis(percentile(latencies, 0.999)))
+                .set("maxMs", millis(latencies[latencies.length - 1]))
+                .set("accepted", stats.accepted.get())
+                .set("responses", stats.outcomes)
+                .set("ordersDrained", drained)
+                .set("orders", orders)
+                .set("oversold", Math.max(0, Math.max(orders, stats.accepted.get()) - stock))
+                .set("duplicateUsers", duplicateUsers)
+                .set("dbStock", dbStock)
+                .set("redisStock", redisStock(redisTemplate, voucherId, shards));
+
+        System.out.println();
+        System.out.println("==== seckill load test: " + label + " ====");
+        result.forEach((k, v) -> System.out.printf("%-16s %s%n", k, v));
+
+        File out = new File("target", "loadtest-results.jsonl");
+        out.getParentFile().mkdirs();
+        try (Writer writer = new FileWriter(out, true)) {
+            writer.write(result.toString());
+            writer.write(System.lineSeparator());
+        }
+    }
+
+    private static long redisStock(StringRedisTemplate redisTemplate, Long voucherId, int shards) {
+        List<String> keys = new ArrayList<>();
+        for (int i = 0; i < Math.max(1, shards); i++) {
+            keys.add(SeckillVoucherCache.stockKey(voucherId, shards, i));
+        }
+        long sum = 0;
+        for (String v : redisTemplate.opsForValue().multiGet(keys)) {
+            sum += v == null ? 0 : Long.parseLong(v);
+        }
+        return sum;
+    }
+
+    private static long percentile(long[] sorted, double p) {
+        int index = (int) Math.ceil(p * sorted.length) - 1;
+        return sorted[Math.max(0, Math.min(sorted.length - 1, index))];
+    }
+
+    private static double millis(long nanos) {
+        return round(nanos / 1e6);
+    }
+
+    private static double round(double v) {
+        return Math.round(v * 100) / 100.0;
+    }
+
+    private static int freePort() throws IOException {
+        try (ServerSocket socket = new ServerSocket(0)) {
+            return socket.getLocalPort();
+        }
+    }
+
+    private static class Response {
+        final int status;
+        final String body;
+        final long latencyNanos;
+
+        Response(int status, String body, long latencyNanos) {
+            this.status = status;
+            this.body = body;
+            this.latencyNanos = latencyNanos;
+        }
+    }
+
+    private static class Stats {
+        final long[] latencies;
+        final AtomicInteger accepted = new AtomicInteger();
+        // "状态码 结果" -> 次数
+        final Map<String, Integer> outcomes = new ConcurrentSkipListMap<>();
+        long elapsedNanos;
+
+        Stats(int requests) {
+            this.latencies = new long[requests];
+        }
+
+        void record(int index, Response response) {
+            latencies[index] = response.latencyNanos;
+            String outcome;
+            if (response.status == 200 && JSONUtil.isJson(response.body)) {
+                JSONObject json = JSONUtil.parseObj(response.body);
+                if (Boolean.TRUE.equals(json.getBool("success"))) {
+                    accepted.incrementAndGet();
+                    outcome = "ok";
+                } else {
+                    outcome = json.getStr("errorMsg");
+                }
+            } else {
+                outcome = response.status == -1 ? response.body : "HTTP";
+            }
+            outcomes.merge(response.status + " " + outcome, 1, Integer::sum);
+        }
+
+        long[] sortedLatencies() {
+            long[] sorted = latencies.clone();
+            Arrays.sort(sorted);
+            return sorted;
+        }
+    }
+}
@@ -0,0 +1,55 @@
+-- 压测用 H2 表结构（MySQL 模式），只包含启动和秒杀流程用到的表
+CREATE TABLE IF NOT EXISTS tb_shop (
+    id          BIGINT AUTO_INCREMENT PRIMARY KEY,
+    name        VARCHAR(128) NOT NULL,
+    type_id     BIGINT NOT NULL,
+    images      VARCHAR(1024) NOT NULL,
+    area        VARCHAR(128),
+    address     VARCHAR(255) NOT NULL,
+    x           DOUBLE NOT NULL,
+    y           DOUBLE NOT NULL,
+    avg_price   BIGINT,
+    sold        INT NOT NULL DEFAULT 0,
+    comments    INT NOT NULL DEFAULT 0,
+    score       INT NOT NULL DEFAULT 0,
+    open_hours  VARCHAR(32),
+    create_time TIMESTAMP DEFAULT CURRENT_TIMESTAMP,
+    update_time TIMESTAMP DEFAULT CURRENT_TIMESTAMP
+);
+
+CREATE TABLE IF NOT EXISTS tb_voucher (
+    id           BIGINT AUTO_INCREMENT PRIMARY KEY,
+    shop_id      BIGINT,
+    title        VARCHAR(255) NOT NULL,
+    sub_title    VARCHAR(255),
+    rules        VARCHAR(1024),
+    pay_value    BIGINT NOT NULL,
+    actual_value BIGINT NOT NULL,
+    type         TINYINT NOT NULL DEFAULT 0,
+    status       TINYINT NOT NULL DEFAULT 1,
+    create_time  TIMESTAMP DEFAULT CURRENT_TIMESTAMP,
+    update_time  TIMESTAMP DEFAULT CURRENT_TIMESTAMP
+);
+
+CREATE TABLE IF NOT EXISTS tb_seckill_voucher (
+    voucher_id  BIGINT PRIMARY KEY,
+    stock       INT NOT NULL,
+    create_time TIMESTAMP DEFAULT CURRENT_TIMESTAMP,
+    begin_time  TIMESTAMP NOT NULL,
+    end_time    TIMESTAMP NOT NULL,
+    update_time TIMESTAMP DEFAULT CURRENT_TIMESTAMP
+);
+
+CREATE TABLE IF NOT EXISTS tb_voucher_order (
+    id          BIGINT PRIMARY KEY,
+    user_id     BIGINT NOT NULL,
+    voucher_id  BIGINT NOT NULL,
+    pay_type    TINYINT NOT NULL DEFAULT 1,
+    status      TINYINT NOT NULL DEFAULT 1,
+    create_time TIMESTAMP DEFAULT CURRENT_TIMESTAMP,
+    pay_time    TIMESTAMP,
+    use_time    TIMESTAMP,
+    refund_time TIMESTAMP,
+    update_time TIMESTAMP DEFAULT CURRENT_TIMESTAMP,
+    CONSTRAINT uk_user_voucher UNIQUE (user_id, voucher_id)
+);
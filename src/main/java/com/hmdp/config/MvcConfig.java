@@ -1,24 +1,33 @@
 package com.hmdp.config;
 
+import com.hmdp.utils.AdminInterceptor;
 import com.hmdp.utils.LoginInterceptor;
 import com.hmdp.utils.RefreshTokenInterceptor;
+import com.hmdp.utils.SessionStore;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Configuration;
-import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.web.servlet.config.annotation.InterceptorRegistry;
 import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
 
 import javax.annotation.Resource;
+import java.util.Set;
 
 @Configuration
 public class MvcConfig implements WebMvcConfigurer {
 
     @Resource
-    private StringRedisTemplate stringRedisTemplate;
+    private SessionStore sessionStore;
+
+    /**
+     * 可以访问 /admin/** 的用户id
+     */
+    @Value("${hmdp.admin.user-ids:}")
+    private Set<Long> adminUserIds;
 
     @Override
     public void addInterceptors(InterceptorRegistry registry) {
 
-        registry.addInterceptor(new RefreshTokenInterceptor(stringRedisTemplate));
+        registry.addInterceptor(new RefreshTokenInterceptor(sessionStore));
 
         registry.addInterceptor(new LoginInterceptor())
                 .excludePathPatterns(
@@ -30,5 +39,8 @@ public class MvcConfig implements WebMvcConfigurer {
                         "/user/login",
                         "/user/code"
                 );
+
+        registry.addInterceptor(new AdminInterceptor(adminUserIds))
+                .addPathPatterns("/admin/**");
     }
 }
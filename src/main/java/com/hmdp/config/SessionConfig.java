@@ -0,0 +1,22 @@
+package com.hmdp.config;
+
+import com.hmdp.utils.LoginSessionCache;
+import com.hmdp.utils.SessionStore;
+import com.hmdp.utils.SignedTokenStore;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+@Configuration
+public class SessionConfig {
+
+    /**
+     * 登录态：redis 随机 token + redis hash，signed 无状态签名 token
+     */
+    @Bean
+    public SessionStore sessionStore(@Value("${hmdp.session.mode:redis}") String mode,
+                                     @Value("${hmdp.session.secret:}") String secret,
+                                     @Value("${hmdp.session.token-ttl:30}") long tokenTtlMinutes) {
+        return "signed".equals(mode) ? new SignedTokenStore(secret, tokenTtlMinutes) : new LoginSessionCache();
+    }
+}
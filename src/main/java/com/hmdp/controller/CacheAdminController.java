@@ -0,0 +1,59 @@
+package com.hmdp.controller;
+
+
+import com.hmdp.dto.Result;
+import com.hmdp.service.IShopService;
+import com.hmdp.utils.CacheMetrics;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.web.bind.annotation.*;
+
+import javax.annotation.Resource;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * <p>
+ * 缓存管理
+ * </p>
+ */
+@Slf4j
+@RestController
+@RequestMapping("/admin/cache")
+public class CacheAdminController {
+
+    @Resource
+    private IShopService shopService;
+    @Resource
+    private CacheMetrics cacheMetrics;
+
+    /**
+     * 缓存统计：按key前缀的命中、穿透、重建次数及耗时，以及重建线程池状态
+     * @return 统计数据
+     */
+    @GetMapping("/stats")
+    public Result stats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("prefixes", cacheMetrics.stats());
+        stats.put("rebuildExecutor", cacheMetrics.rebuildExecutorStats());
+        return Result.ok(stats);
+    }
+
+    /**
+     * 预热商铺缓存
+     * @return 预热进度
+     */
+    @PostMapping("/warm-up/shop")
+    public Result warmUpShop() {
+        log.info("预热商铺缓存");
+        return shopService.warmUpCache();
+    }
+
+    /**
+     * 查询商铺缓存预热进度
+     * @return 预热进度
+     */
+    @GetMapping("/warm-up/shop")
+    public Result queryShopWarmUp() {
+        return shopService.queryWarmUpProgress();
+    }
+}
@@ -11,6 +11,7 @@ import lombok.extern.slf4j.Slf4j;
 import org.springframework.web.bind.annotation.*;
 
 import javax.annotation.Resource;
+import java.util.concurrent.CompletableFuture;
 
 /**
  * <p>
@@ -34,9 +35,9 @@ public class ShopController {
      * @return 商铺详情数据
      */
     @GetMapping("/{id}")
-    public Result queryShopById(@PathVariable("id") Long id) {
+    public CompletableFuture<Result> queryShopById(@PathVariable("id") Long id) {
         log.info("查询商铺：{}", id);
-        return shopService.queryById(id);
+        return shopService.queryByIdAsync(id);
     }
 
     /**
@@ -47,8 +48,7 @@ public class ShopController {
     @PostMapping
     public Result saveShop(@RequestBody Shop shop) {
         log.info("新增商铺：{}", shop);
-        shopService.save(shop);
-        return Result.ok(shop.getId());
+        return shopService.saveShop(shop);
     }
 
     /**
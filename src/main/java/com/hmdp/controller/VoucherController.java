@@ -49,6 +49,17 @@ public class VoucherController {
         return Result.ok(voucher.getId());
     }
 
+    /**
+     * 将 redis 中的秒杀库存同步回数据库
+     * @param voucherId 优惠券id
+     * @return redis 与数据库中的库存
+     */
+    @PostMapping("seckill/{id}/reconcile")
+    public Result reconcileSeckillStock(@PathVariable("id") Long voucherId) {
+        log.info("同步秒杀券库存：{}", voucherId);
+        return voucherService.reconcileSeckillStock(voucherId);
+    }
+
     /**
      * 查询店铺的优惠券列表
      * @param shopId 店铺id
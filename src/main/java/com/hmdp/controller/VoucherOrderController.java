@@ -3,8 +3,11 @@ package com.hmdp.controller;
 
 import com.hmdp.dto.Result;
 import com.hmdp.service.IVoucherOrderService;
+import com.hmdp.utils.SeckillAdmission;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
 import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.RequestMapping;
@@ -12,6 +15,7 @@ import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RestController;
 
 import javax.annotation.Resource;
+import javax.servlet.http.HttpServletResponse;
 
 /**
  * <p>
@@ -28,16 +32,28 @@ public class VoucherOrderController {
     private static final Logger log = LoggerFactory.getLogger(VoucherOrderController.class);
     @Resource
     private IVoucherOrderService voucherOrderService;
+    @Resource
+    private SeckillAdmission seckillAdmission;
 
 
     /**
-     * 秒杀卷抢购
+     * 秒杀卷抢购，未通过准入的请求返回 429 与 Retry-After
      * @param voucherId
      * @return
      */
     @PostMapping("seckill/{id}")
-    public Result seckillVoucher(@PathVariable("id") Long voucherId) {
+    public Result seckillVoucher(@PathVariable("id") Long voucherId, HttpServletResponse response) {
         log.info("秒杀卷抢购：{}", voucherId);
-        return voucherOrderService.seckillVoucher(voucherId);
+        long waitMillis = seckillAdmission.tryAdmit(voucherId);
+        if (waitMillis > 0) {
+            response.setStatus(HttpStatus.TOO_MANY_REQUESTS.value());
+            response.setHeader(HttpHeaders.RETRY_AFTER, String.valueOf((waitMillis + 999) / 1000));
+            return Result.fail("TOO many requests");
+        }
+        Result result = voucherOrderService.seckillVoucher(voucherId);
+        if (Boolean.TRUE.equals(result.getSuccess())) {
+            seckillAdmission.onOrder(voucherId);
+        }
+        return result;
     }
 }
@@ -0,0 +1,17 @@
+package com.hmdp.dto;
+
+import lombok.Data;
+
+@Data
+public class CacheWarmUpDTO {
+    private String name;
+    private Boolean running;
+    private Long total;
+    private Long warmed;
+    private Integer failedChunks;
+    private Long elapsedMillis;
+    /**
+     * 每秒写入条数
+     */
+    private Long throughput;
+}
@@ -90,6 +90,12 @@ public class Voucher implements Serializable {
     @TableField(exist = false)
     private LocalDateTime endTime;
 
+    /**
+     * 库存分片数，为空或1时不分片
+     */
+    @TableField(exist = false)
+    private Integer shards;
+
     /**
      * 创建时间
      */
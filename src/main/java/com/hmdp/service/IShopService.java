@@ -4,6 +4,8 @@ import com.hmdp.dto.Result;
 import com.hmdp.entity.Shop;
 import com.baomidou.mybatisplus.extension.service.IService;
 
+import java.util.concurrent.CompletableFuture;
+
 /**
  * <p>
  *  服务类
@@ -16,5 +18,13 @@ public interface IShopService extends IService<Shop> {
 
     Result queryById(Long id);
 
+    CompletableFuture<Result> queryByIdAsync(Long id);
+
+    Result saveShop(Shop shop);
+
     Result update(Shop shop);
+
+    Result warmUpCache();
+
+    Result queryWarmUpProgress();
 }
@@ -17,4 +17,11 @@ import org.springframework.stereotype.Service;
 @Service
 public class SeckillVoucherServiceImpl extends ServiceImpl<SeckillVoucherMapper, SeckillVoucher> implements ISeckillVoucherService {
 
+    /**
+     * 扣减 count 份库存，库存不足时整体失败
+     */
+    @Override
+    public boolean decreaseStock(Long voucherId, int count) {
+        return getBaseMapper().decreaseStock(voucherId, count) > 0;
+    }
 }
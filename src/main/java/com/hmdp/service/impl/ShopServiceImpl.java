@@ -1,26 +1,46 @@
 package com.hmdp.service.impl;
 
+import cn.hutool.core.exceptions.ExceptionUtil;
+import cn.hutool.core.thread.NamedThreadFactory;
 import cn.hutool.core.util.BooleanUtil;
 import cn.hutool.core.util.StrUtil;
 import cn.hutool.json.JSONObject;
 import cn.hutool.json.JSONUtil;
+import com.baomidou.mybatisplus.core.conditions.query.QueryWrapper;
 import com.hmdp.dto.Result;
 import com.hmdp.entity.Shop;
 import com.hmdp.mapper.ShopMapper;
 import com.hmdp.service.IShopService;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
+import com.hmdp.utils.AsyncCacheClient;
 import com.hmdp.utils.CacheClient;
+import com.hmdp.utils.CacheWarmer;
+import com.hmdp.utils.LocalBloomFilter;
+import com.hmdp.utils.RedisBloomFilter;
 import com.hmdp.utils.RedisData;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
 import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
 import javax.annotation.Resource;
 
 import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import static com.hmdp.utils.RedisConstants.*;
 
@@ -32,6 +52,7 @@ import static com.hmdp.utils.RedisConstants.*;
  * @author 虎哥
  * @since 2021-12-22
  */
+@Slf4j
 @Service
 public class ShopServiceImpl extends ServiceImpl<ShopMapper, Shop> implements IShopService {
 
@@ -39,6 +60,122 @@ public class ShopServiceImpl extends ServiceImpl<ShopMapper, Shop> implements IS
     StringRedisTemplate stringRedisTemplate;
     @Resource
     CacheClient cacheClient;
+    @Resource
+    AsyncCacheClient asyncCacheClient;
+
+    /**
+     * 布隆过滤器类型：local 进程内，redis 多节点共享
+     */
+    @Value("${hmdp.cache.bloom-filter:local}")
+    private String bloomFilterType;
+
+    /**
+     * 启动后是否预热商铺缓存
+     */
+    @Value("${hmdp.cache.warm-up-on-startup:false}")
+    private boolean warmUpOnStartup;
+
+    private CacheWarmer shopCacheWarmer;
+
+    // 定期重建布隆过滤器
+    private final ScheduledExecutorService bloomRebuilder =
+            Executors.newSingleThreadScheduledExecutor(new NamedThreadFactory("shop-bloom-", true));
+    private final AtomicBoolean reseeding = new AtomicBoolean();
+    private RedisBloomFilter shopBloomFilter;
+
+    @PostConstruct
+    private void initCacheWarmer() {
+        shopCacheWarmer = new CacheWarmer("SHOP", cacheClient, CACHE_WARM_UP_PARALLELISM, CACHE_WARM_UP_CHUNK);
+    }
+
+    @PreDestroy
+    private void destroy() {
+        shopCacheWarmer.shutdown();
+        bloomRebuilder.shutdownNow();
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void warmUpOnStartup() {
+        if (warmUpOnStartup) {
+            warmUpCache();
+        }
+    }
+
+
+    /**
+     * 启动时用 tb_shop 中已有的id初始化布隆过滤器，之后定期重建，补上漏收的广播和未经 saveShop 新增的商铺
+     * redis 过滤器写完后才设置标记，标记丢失时查询放行到数据库并重新写入；多个节点每个周期只有一个重新写入
+     */
+    @PostConstruct
+    private void initBloomFilter() {
+        if (!"redis".equals(bloomFilterType)) {
+            rebuildLocalBloomFilter();
+            bloomRebuilder.scheduleWithFixedDelay(this::rebuildLocalBloomFilter,
+                    BLOOM_SHOP_REBUILD_INTERVAL, BLOOM_SHOP_REBUILD_INTERVAL, TimeUnit.SECONDS);
+            return;
+        }
+        RedisBloomFilter bloomFilter = new RedisBloomFilter(stringRedisTemplate, BLOOM_SHOP_KEY, BLOOM_SHOP_SEEDED_KEY,
+                this::reseedRedisBloomFilterAsync, BLOOM_SHOP_EXPECTED, BLOOM_SHOP_FPP);
+        shopBloomFilter = bloomFilter;
+        if (!Boolean.TRUE.equals(stringRedisTemplate.hasKey(BLOOM_SHOP_SEEDED_KEY))) {
+            seedRedisBloomFilter();
+        }
+        cacheClient.registerBloomFilter(CACHE_SHOP_KEY, bloomFilter);
+        bloomRebuilder.scheduleWithFixedDelay(this::reseedRedisBloomFilter,
+                BLOOM_SHOP_REBUILD_INTERVAL, BLOOM_SHOP_REBUILD_INTERVAL, TimeUnit.SECONDS);
+    }
+
+    // bits are only ever added, seeding again over a partial bitmap is safe
+    private void seedRedisBloomFilter() {
+        List<String> ids = listShopIds();
+        shopBloomFilter.putAll(ids);
+        stringRedisTemplate.opsForValue().set(BLOOM_SHOP_SEEDED_KEY, String.valueOf(ids.size()));
+        log.info("SHOP bloom filter seeded: {} ids", ids.size());
+    }
+
+    // 查询时发现标记丢失，在后台重新写入，同一时间本节点只提交一次
+    private void reseedRedisBloomFilterAsync() {
+        if (reseeding.compareAndSet(false, true)) {
+            try {
+                bloomRebuilder.execute(() -> {
+                    try {
+                        reseedRedisBloomFilter();
+                    } finally {
+                        reseeding.set(false);
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                reseeding.set(false);
+            }
+        }
+    }
+
+    // 抢到本周期的重新写入权后写入
+    private void reseedRedisBloomFilter() {
+        try {
+            Boolean owner = stringRedisTemplate.opsForValue()
+                    .setIfAbsent(BLOOM_SHOP_SEEDING_KEY, "1", BLOOM_SHOP_REBUILD_INTERVAL, TimeUnit.SECONDS);
+            if (BooleanUtil.isTrue(owner)) {
+                seedRedisBloomFilter();
+            }
+        } catch (Exception e) {
+            log.error("reseed SHOP bloom filter failed", e);
+        }
+    }
+
+    private void rebuildLocalBloomFilter() {
+        try {
+            cacheClient.rebuildBloomFilter(CACHE_SHOP_KEY,
+                    new LocalBloomFilter(BLOOM_SHOP_EXPECTED, BLOOM_SHOP_FPP), this::listShopIds);
+            log.info("SHOP bloom filter rebuilt");
+        } catch (Exception e) {
+            log.error("rebuild SHOP bloom filter failed", e);
+        }
+    }
+
+    private List<String> listShopIds() {
+        return listObjs(new QueryWrapper<Shop>().select("id"), String::valueOf);
+    }
 
 
     /**
@@ -55,7 +192,7 @@ public class ShopServiceImpl extends ServiceImpl<ShopMapper, Shop> implements IS
 //                CACHE_SHOP_TTL, TimeUnit.MINUTES
 //        );
 
-        Shop shop = cacheClient.getLogicalExpire(
+        Shop shop = cacheClient.getLogicalExpireEarly(
                 CACHE_SHOP_KEY, id,
                 Shop.class, this::getById,
                 CACHE_SHOP_TTL, TimeUnit.MINUTES, LOCK_SHOP
@@ -69,6 +206,76 @@ public class ShopServiceImpl extends ServiceImpl<ShopMapper, Shop> implements IS
     }
 
 
+    /**
+     * 根据id异步查询商铺信息，不阻塞 Web 线程
+     * @param id 商铺id
+     * @return 商铺详情数据
+     */
+    @Override
+    public CompletableFuture<Result> queryByIdAsync(Long id) {
+        return asyncCacheClient.getLogicalExpireEarly(
+                CACHE_SHOP_KEY, id,
+                Shop.class, this::getById,
+                CACHE_SHOP_TTL, TimeUnit.MINUTES, LOCK_SHOP
+        ).handle((shop, e) -> {
+            if (e == null) {
+                return shop == null ? Result.fail("SHOP not exist") : Result.ok(shop);
+            }
+            // db executor full
+            if (ExceptionUtil.isCausedBy(e, RejectedExecutionException.class)) {
+                return Result.fail("SYSTEM busy");
+            }
+            throw e instanceof CompletionException ? (CompletionException) e : new CompletionException(e);
+        });
+    }
+
+
+    /**
+     * 新增商铺信息
+     * @param shop 商铺数据
+     * @return 商铺id
+     */
+    @Override
+    public Result saveShop(Shop shop) {
+        save(shop);
+        cacheClient.bloomPut(CACHE_SHOP_KEY, shop.getId());
+
+        return Result.ok(shop.getId());
+    }
+
+
+    /**
+     * 预热商铺缓存，按id分块并行写入逻辑过期数据
+     * @return 预热进度
+     */
+    @Override
+    public Result warmUpCache() {
+        Map<String, Object> range = getMap(new QueryWrapper<Shop>()
+                .select("MIN(id) AS minId", "MAX(id) AS maxId", "COUNT(*) AS total"));
+        if (range == null || range.get("minId") == null) {
+            return Result.fail("SHOP is empty");
+        }
+
+        boolean started = shopCacheWarmer.start(
+                ((Number) range.get("minId")).longValue(),
+                ((Number) range.get("maxId")).longValue(),
+                ((Number) range.get("total")).longValue(),
+                (from, to) -> query().ge("id", from).lt("id", to).orderByAsc("id").list(),
+                Shop::getId,
+                CACHE_SHOP_KEY, CACHE_SHOP_TTL, TimeUnit.MINUTES
+        );
+        if (!started) {
+            return Result.fail("SHOP cache warm up is running");
+        }
+        return Result.ok(shopCacheWarmer.progress());
+    }
+
+    @Override
+    public Result queryWarmUpProgress() {
+        return Result.ok(shopCacheWarmer.progress());
+    }
+
+
     /**
      * 更新商铺信息
      * @param shop 商铺数据
@@ -82,7 +289,7 @@ public class ShopServiceImpl extends ServiceImpl<ShopMapper, Shop> implements IS
         }
 
         updateById(shop);
-        stringRedisTemplate.delete(CACHE_SHOP_KEY + shop.getId());
+        cacheClient.delete(CACHE_SHOP_KEY + shop.getId());
 
         return Result.ok();
     }
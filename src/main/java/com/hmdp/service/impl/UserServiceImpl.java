@@ -1,8 +1,5 @@
 package com.hmdp.service.impl;
 
-import cn.hutool.core.bean.BeanUtil;
-import cn.hutool.core.bean.copier.CopyOptions;
-import cn.hutool.core.lang.UUID;
 import cn.hutool.core.util.RandomUtil;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
 import com.hmdp.dto.LoginFormDTO;
@@ -12,6 +9,7 @@ import com.hmdp.entity.User;
 import com.hmdp.mapper.UserMapper;
 import com.hmdp.service.IUserService;
 import com.hmdp.utils.RegexUtils;
+import com.hmdp.utils.SessionStore;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.BeanUtils;
 import org.springframework.data.redis.core.StringRedisTemplate;
@@ -20,8 +18,6 @@ import org.springframework.stereotype.Service;
 import javax.annotation.Resource;
 import javax.servlet.http.HttpSession;
 
-import java.util.HashMap;
-import java.util.Map;
 import java.util.concurrent.TimeUnit;
 
 import static com.hmdp.utils.RedisConstants.*;
@@ -42,6 +38,9 @@ public class UserServiceImpl extends ServiceImpl<UserMapper, User> implements IU
     @Resource
     StringRedisTemplate stringRedisTemplate;
 
+    @Resource
+    private SessionStore sessionStore;
+
 
     /**
      * 发送手机验证码
@@ -99,23 +98,21 @@ public class UserServiceImpl extends ServiceImpl<UserMapper, User> implements IU
             user = createUserByPhone(phone);
         }
 
-        // generate token
-        String token = UUID.randomUUID().toString(true);
-        // save user in redis
+        // generate token, save user in redis or sign it into the token
         UserDTO userDTO = new UserDTO();
         BeanUtils.copyProperties(user, userDTO);
 //        session.setAttribute(USER_SESSION, userDTO);
-        Map<String, Object> userMap = BeanUtil.beanToMap(userDTO, new HashMap<>(),
-                CopyOptions.create()
-                        .setIgnoreNullValue(true)
-                        .setFieldValueEditor((fieldName, fieldValue) -> fieldValue.toString())
-        );
-        stringRedisTemplate.opsForHash().putAll(LOGIN_USER_TOKEN + token, userMap);
-        stringRedisTemplate.expire(LOGIN_USER_TOKEN + token, LOGIN_USER_TTL, TimeUnit.MINUTES);
+        String token = sessionStore.create(userDTO);
 
         return Result.ok(token);
     }
 
+    @Override
+    public Result logout(String token) {
+        sessionStore.revoke(token);
+        return Result.ok();
+    }
+
     private User createUserByPhone(String phone) {
         User user = new User();
         user.setPhone(phone);
@@ -7,16 +7,43 @@ import com.hmdp.mapper.VoucherOrderMapper;
 import com.hmdp.service.ISeckillVoucherService;
 import com.hmdp.service.IVoucherOrderService;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
-import com.hmdp.utils.RedisIdWorker;
-import com.hmdp.utils.SimpleRedisLock;
+import com.hmdp.utils.IdWorker;
+import com.hmdp.utils.SeckillVoucherCache;
 import com.hmdp.utils.UserHolder;
-import org.springframework.aop.framework.AopContext;
+import cn.hutool.core.collection.CollUtil;
+import cn.hutool.core.net.NetUtil;
+import cn.hutool.core.thread.NamedThreadFactory;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.annotation.Lazy;
+import org.springframework.context.event.EventListener;
+import org.springframework.core.NestedExceptionUtils;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.data.domain.Range;
+import org.springframework.data.redis.connection.stream.*;
+import org.springframework.data.redis.core.RedisCallback;
 import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.data.redis.serializer.StringRedisSerializer;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
+import javax.annotation.PreDestroy;
 import javax.annotation.Resource;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
 import java.time.LocalDateTime;
+import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.stream.Collectors;
+
+import static com.hmdp.utils.RedisConstants.*;
 
 /**
  * <p>
@@ -26,6 +53,7 @@ import java.time.LocalDateTime;
  * @author 虎哥
  * @since 2021-12-22
  */
+@Slf4j
 @Service
 public class VoucherOrderServiceImpl extends ServiceImpl<VoucherOrderMapper, VoucherOrder> implements IVoucherOrderService {
 
@@ -33,86 +61,467 @@ public class VoucherOrderServiceImpl extends ServiceImpl<VoucherOrderMapper, Vou
     private ISeckillVoucherService seckillVoucherService;
 
     @Resource
-    private RedisIdWorker redisIdWorker;
+    private IdWorker idWorker;
 
     @Resource
     private StringRedisTemplate stringRedisTemplate;
 
+    @Resource
+    private SeckillVoucherCache seckillVoucherCache;
+
+    @Lazy
+    @Resource
+    private IVoucherOrderService proxy;
+
+    @Value("${hmdp.seckill.order-workers:2}")
+    private int orderWorkers;
+
+    @Value("${hmdp.seckill.order-batch-size:100}")
+    private int orderBatchSize;
+
+    @Value("${hmdp.seckill.order-batch-linger-ms:20}")
+    private long orderBatchLingerMs;
+
+    @Value("${server.port:8081}")
+    private int serverPort;
+
+    private static final DefaultRedisScript<Long> SECKILL_SCRIPT;
+    static {
+        SECKILL_SCRIPT = new DefaultRedisScript<>();
+        SECKILL_SCRIPT.setLocation(new ClassPathResource("seckill.lua"));
+        SECKILL_SCRIPT.setResultType(Long.class);
+    }
+
+    private static final DefaultRedisScript<Long> SECKILL_PROBE_SCRIPT;
+    static {
+        SECKILL_PROBE_SCRIPT = new DefaultRedisScript<>();
+        SECKILL_PROBE_SCRIPT.setLocation(new ClassPathResource("seckill_probe.lua"));
+        SECKILL_PROBE_SCRIPT.setResultType(Long.class);
+    }
+
+    private volatile boolean running = true;
+    private ExecutorService orderExecutor;
+    private ScheduledExecutorService pendingExecutor;
+
+    // 已启动消费者的队列，分片队列只在有秒杀券用到该分片时启动
+    private final List<String> consumedStreams = new CopyOnWriteArrayList<>();
+    private volatile int consumedShards;
+
+    // 消费者名称前缀，重启后保持不变，才能接着处理自己未确认的消息
+    private String consumerPrefix;
+
+    /**
+     * 应用就绪后创建消费者组，启动订单消费者与pending消息回收
+     * 不分片的队列启动 orderWorkers 个消费者；分片队列在秒杀券用到该分片或队列中还有消息时启动，每个一个消费者
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void startOrderWorkers() {
+        createGroupIfAbsent(SECKILL_STREAM_KEY);
+        consumerPrefix = NetUtil.getLocalHostName() + ":" + serverPort;
+
+        orderExecutor = Executors.newCachedThreadPool(new NamedThreadFactory("seckill-order-", true));
+        for (int i = 0; i < orderWorkers; i++) {
+            orderExecutor.submit(new VoucherOrderHandler(SECKILL_STREAM_KEY, consumerPrefix + "-" + i));
+        }
+        consumedStreams.add(SECKILL_STREAM_KEY);
+
+        // 已不在售的分片秒杀券可能还有未处理的消息
+        int existing = 0;
+        for (int i = 0; i < SECKILL_MAX_SHARDS; i++) {
+            if (Boolean.TRUE.equals(stringRedisTemplate.hasKey(SeckillVoucherCache.shardStreamKey(i)))) {
+                existing = i + 1;
+            }
+        }
+        startShardConsumers(existing);
+        seckillVoucherCache.addShardsListener(this::startShardConsumers);
+
+        pendingExecutor = Executors.newSingleThreadScheduledExecutor(new NamedThreadFactory("seckill-pending-", true));
+        pendingExecutor.scheduleWithFixedDelay(this::reclaimPending,
+                SECKILL_PENDING_INTERVAL, SECKILL_PENDING_INTERVAL, TimeUnit.SECONDS);
+    }
+
+    // 启动前 shards 个分片队列的消费者
+    private void startShardConsumers(int shards) {
+        if (shards <= 1 || shards <= consumedShards) {
+            return;
+        }
+        synchronized (consumedStreams) {
+            if (!running) {
+                return;
+            }
+            for (int i = consumedShards; i < Math.min(shards, SECKILL_MAX_SHARDS); i++) {
+                String streamKey = SeckillVoucherCache.shardStreamKey(i);
+                createGroupIfAbsent(streamKey);
+                orderExecutor.submit(new VoucherOrderHandler(streamKey, consumerPrefix + "-0"));
+                consumedStreams.add(streamKey);
+                consumedShards = i + 1;
+            }
+        }
+    }
+
+    @PreDestroy
+    public void stopOrderWorkers() {
+        running = false;
+        if (orderExecutor != null) {
+            orderExecutor.shutdownNow();
+        }
+        if (pendingExecutor != null) {
+            pendingExecutor.shutdownNow();
+        }
+    }
+
+    private void createGroupIfAbsent(String streamKey) {
+        try {
+            // XGROUP CREATE stream.orders g1 0 MKSTREAM
+            stringRedisTemplate.execute((RedisCallback<Object>) connection -> connection.execute("XGROUP",
+                    "CREATE".getBytes(StandardCharsets.UTF_8),
+                    streamKey.getBytes(StandardCharsets.UTF_8),
+                    SECKILL_STREAM_GROUP.getBytes(StandardCharsets.UTF_8),
+                    "0".getBytes(StandardCharsets.UTF_8),
+                    "MKSTREAM".getBytes(StandardCharsets.UTF_8)));
+        } catch (Exception e) {
+            // BUSYGROUP 组已存在
+            if (!String.valueOf(NestedExceptionUtils.getMostSpecificCause(e).getMessage()).contains("BUSYGROUP")) {
+                throw e;
+            }
+        }
+    }
+
+    private class VoucherOrderHandler implements Runnable {
+
+        private final String streamKey;
+        private final Consumer consumer;
+
+        VoucherOrderHandler(String streamKey, String name) {
+            this.streamKey = streamKey;
+            this.consumer = Consumer.from(SECKILL_STREAM_GROUP, name);
+        }
+
+        @Override
+        public void run() {
+            // 先处理本消费者上次未确认的消息，处理失败的留给pending回收
+            String pendingCursor = "0";
+            while (running) {
+                try {
+                    List<MapRecord<String, Object, Object>> batch;
+                    if (pendingCursor != null) {
+                        batch = read(StreamReadOptions.empty().count(orderBatchSize), ReadOffset.from(pendingCursor));
+                        if (batch.isEmpty()) {
+                            pendingCursor = null;
+                            continue;
+                        }
+                        pendingCursor = batch.get(batch.size() - 1).getId().getValue();
+                    } else {
+                        batch = readBatch();
+                        if (batch.isEmpty()) {
+                            continue;
+                        }
+                    }
+                    handleRecords(streamKey, batch);
+                } catch (Exception e) {
+                    if (!running) {
+                        return;
+                    }
+                    log.error("voucher order handle failed", e);
+                }
+            }
+        }
+
+        /**
+         * 攒批：等到第一条消息后，在 linger 时间内继续读取，直到凑满 batchSize
+         */
+        private List<MapRecord<String, Object, Object>> readBatch() {
+            // XREADGROUP GROUP g1 c1 COUNT n BLOCK 2000 STREAMS stream.orders >
+            List<MapRecord<String, Object, Object>> batch = new ArrayList<>(read(
+                    StreamReadOptions.empty().count(orderBatchSize).block(Duration.ofSeconds(SECKILL_STREAM_BLOCK)),
+                    ReadOffset.lastConsumed()));
+            if (batch.isEmpty()) {
+                return batch;
+            }
+            long deadline = System.currentTimeMillis() + orderBatchLingerMs;
+            while (running && batch.size() < orderBatchSize) {
+                long remaining = deadline - System.currentTimeMillis();
+                if (remaining <= 0) {
+                    break;
+                }
+                List<MapRecord<String, Object, Object>> more = read(
+                        StreamReadOptions.empty().count(orderBatchSize - batch.size()).block(Duration.ofMillis(remaining)),
+                        ReadOffset.lastConsumed());
+                if (more.isEmpty()) {
+                    break;
+                }
+                batch.addAll(more);
+            }
+            return batch;
+        }
+
+        private List<MapRecord<String, Object, Object>> read(StreamReadOptions options, ReadOffset offset) {
+            List<MapRecord<String, Object, Object>> list = stringRedisTemplate.opsForStream()
+                    .read(consumer, options, StreamOffset.create(streamKey, offset));
+            return list == null ? Collections.emptyList() : list;
+        }
+    }
+
+    /**
+     * 回收空闲过久的pending消息（消费者宕机或处理失败），XCLAIM 到本节点后重新处理
+     * 投递次数达到上限的消息不再重试，转入死信队列
+     */
+    private void reclaimPending() {
+        for (String streamKey : consumedStreams) {
+            if (!running) {
+                return;
+            }
+            reclaimPending(streamKey);
+        }
+    }
+
+    private void reclaimPending(String streamKey) {
+        try {
+            PendingMessages pending = stringRedisTemplate.opsForStream()
+                    .pending(streamKey, SECKILL_STREAM_GROUP, Range.unbounded(), SECKILL_PENDING_BATCH);
+            Duration minIdle = Duration.ofSeconds(SECKILL_PENDING_IDLE);
+            Map<RecordId, Long> deliveries = pending.stream()
+                    .filter(m -> m.getElapsedTimeSinceLastDelivery().compareTo(minIdle) >= 0)
+                    .collect(Collectors.toMap(PendingMessage::getId, PendingMessage::getTotalDeliveryCount));
+            if (deliveries.isEmpty()) {
+                return;
+            }
+            // min-idle-time 保证多个节点只有一个能认领成功
+            byte[] key = streamKey.getBytes(StandardCharsets.UTF_8);
+            RecordId[] idle = deliveries.keySet().toArray(new RecordId[0]);
+            List<ByteRecord> claimed = stringRedisTemplate.execute((RedisCallback<List<ByteRecord>>) connection ->
+                    connection.xClaim(key, SECKILL_STREAM_GROUP, consumerPrefix + "-reclaim", minIdle, idle));
+            if (claimed == null || claimed.isEmpty()) {
+                return;
+            }
+            List<MapRecord<String, String, String>> records = new ArrayList<>(claimed.size());
+            for (ByteRecord r : claimed) {
+                MapRecord<String, String, String> record = r.deserialize(StringRedisSerializer.UTF_8);
+                if (deliveries.getOrDefault(record.getId(), 0L) >= SECKILL_MAX_DELIVERIES) {
+                    deadLetter(streamKey, record, "deliveries");
+                    acknowledge(streamKey, Collections.singletonList(record));
+                } else {
+                    records.add(record);
+                }
+            }
+            for (List<MapRecord<String, String, String>> batch : CollUtil.split(records, orderBatchSize)) {
+                handleRecords(streamKey, batch);
+            }
+        } catch (Exception e) {
+            if (!running) {
+                return;
+            }
+            log.error("reclaim pending voucher orders of {} failed", streamKey, e);
+        }
+    }
+
+    /**
+     * 整批落库，失败时逐条重试，仍失败的留在pending中等待回收
+     */
+    private void handleRecords(String streamKey, List<? extends MapRecord<String, ?, ?>> records) {
+        try {
+            createAndAcknowledge(streamKey, records);
+        } catch (Exception e) {
+            if (records.size() == 1) {
+                handleFailure(streamKey, records.get(0), e);
+                return;
+            }
+            log.warn("voucher order batch of {} failed, retry one by one", records.size(), e);
+            for (MapRecord<String, ?, ?> record : records) {
+                try {
+                    createAndAcknowledge(streamKey, Collections.singletonList(record));
+                } catch (Exception ex) {
+                    handleFailure(streamKey, record, ex);
+                }
+            }
+        }
+    }
+
+    // 唯一索引冲突说明订单已由并发的重复投递落库，直接确认
+    private void handleFailure(String streamKey, MapRecord<String, ?, ?> record, Exception e) {
+        if (e instanceof DuplicateKeyException) {
+            log.debug("voucher order {} saved by another delivery", record.getId());
+            acknowledge(streamKey, Collections.singletonList(record));
+            return;
+        }
+        log.error("voucher order {} failed", record.getId(), e);
+    }
+
+    private void createAndAcknowledge(String streamKey, List<? extends MapRecord<String, ?, ?>> records) {
+        Map<Long, MapRecord<String, ?, ?>> byOrderId = new HashMap<>(records.size() * 2);
+        List<VoucherOrder> voucherOrders = new ArrayList<>(records.size());
+        for (MapRecord<String, ?, ?> record : records) {
+            Map<?, ?> value = record.getValue();
+            VoucherOrder voucherOrder = VoucherOrder.builder()
+                    .id(Long.valueOf(value.get("id").toString()))
+                    .userId(Long.valueOf(value.get("userId").toString()))
+                    .voucherId(Long.valueOf(value.get("voucherId").toString()))
+                    .build();
+            voucherOrders.add(voucherOrder);
+            byOrderId.put(voucherOrder.getId(), record);
+        }
+        List<VoucherOrder> rejected = proxy.createVoucherOrders(voucherOrders);
+        // 数据库提交后再补偿与确认
+        for (VoucherOrder o : rejected) {
+            compensate(streamKey, o, byOrderId.get(o.getId()));
+        }
+        acknowledge(streamKey, records);
+    }
+
+    // XACK stream.orders g1 id...
+    private void acknowledge(String streamKey, List<? extends MapRecord<String, ?, ?>> records) {
+        RecordId[] ids = records.stream().map(MapRecord::getId).toArray(RecordId[]::new);
+        stringRedisTemplate.opsForStream().acknowledge(streamKey, SECKILL_STREAM_GROUP, ids);
+    }
+
+    /**
+     * 数据库库存不足的订单：从已下单集合中移除用户，允许其重新抢购，订单记入死信队列
+     * 不归还 redis 库存，数据库库存已经用完，归还只会让后续订单继续被拒绝，库存差异由同步接口修正
+     */
+    private void compensate(String streamKey, VoucherOrder voucherOrder, MapRecord<String, ?, ?> record) {
+        Long voucherId = voucherOrder.getVoucherId();
+        SeckillVoucher seckillVoucher = seckillVoucherCache.get(voucherId);
+        int shards = seckillVoucher == null || seckillVoucher.getShards() == null ? 1 : seckillVoucher.getShards();
+        int shard = (int) Math.floorMod(voucherOrder.getUserId(), (long) shards);
+        stringRedisTemplate.opsForSet().remove(
+                SeckillVoucherCache.orderKey(voucherId, shards, shard), voucherOrder.getUserId().toString());
+        deadLetter(streamKey, record, "stock");
+    }
+
+    private void deadLetter(String streamKey, MapRecord<String, ?, ?> record, String reason) {
+        Map<String, String> value = new HashMap<>();
+        record.getValue().forEach((k, v) -> value.put(k.toString(), v.toString()));
+        value.put("sourceStream", streamKey);
+        value.put("sourceId", record.getId().getValue());
+        value.put("reason", reason);
+        stringRedisTemplate.opsForStream().add(SECKILL_DEAD_LETTER_KEY, value);
+        log.error("voucher order moved to dead letter, reason {}: {}", reason, value);
+    }
+
 
     /**
      * 秒杀卷抢购
+     * 售罄与时间范围在本地判断，库存与一人一单在 Redis 中通过 Lua 原子判断，订单异步写入数据库
      * @param voucherId
      * @return
      */
     @Override
     public Result seckillVoucher(Long voucherId) {
 
-        SeckillVoucher seckillVoucher = seckillVoucherService.getById(voucherId);
+        // sold out, no I/O
+        if (seckillVoucherCache.isSoldOut(voucherId)) {
+            return Result.fail("STOCK not enough");
+        }
+
+        // get from local snapshot
+        SeckillVoucher seckillVoucher = seckillVoucherCache.get(voucherId);
+        if (seckillVoucher == null) {
+            seckillVoucher = seckillVoucherService.getById(voucherId);
+            if (seckillVoucher == null) {
+                return Result.fail("VOUCHER not exist");
+            }
+            seckillVoucherCache.put(seckillVoucher);
+        }
 
         // time is valid
         if (seckillVoucher.getBeginTime().isAfter(LocalDateTime.now()) || seckillVoucher.getEndTime().isBefore(LocalDateTime.now())) {
             return Result.fail("TIME not allowed");
         }
 
-        // stock is enough
-        if (seckillVoucher.getStock() < 1) {
+        // stock is enough, one user one order, send order message
+        Long userId = UserHolder.getUser().getId();
+        long orderId = idWorker.nextId("seckillOrder");
+        // 分片库存按用户路由
+        int shards = seckillVoucher.getShards() == null ? 1 : seckillVoucher.getShards();
+        int shard = (int) Math.floorMod(userId, (long) shards);
+        String orderKey = SeckillVoucherCache.orderKey(voucherId, shards, shard);
+        Long r = stringRedisTemplate.execute(
+                SECKILL_SCRIPT,
+                Arrays.asList(SeckillVoucherCache.stockKey(voucherId, shards, shard), orderKey,
+                        SeckillVoucherCache.streamKey(shards, shard)),
+                userId.toString(), voucherId.toString(), String.valueOf(orderId), shards > 1 ? "1" : "0"
+        );
+        if (r != null && r == 3) {
+            // home shard is empty, probe siblings one at a time so each script stays in one slot
+            r = 1L;
+            for (int i = 1; i < shards && r != 0; i++) {
+                int sibling = (shard + i) % shards;
+                Long probed = stringRedisTemplate.execute(SECKILL_PROBE_SCRIPT,
+                        Arrays.asList(SeckillVoucherCache.stockKey(voucherId, shards, sibling),
+                                SeckillVoucherCache.streamKey(shards, sibling)),
+                        userId.toString(), voucherId.toString(), String.valueOf(orderId));
+                r = probed == null ? 1L : probed;
+            }
+            if (r != 0) {
+                // all shards empty, release the user reserved in the home shard
+                stringRedisTemplate.opsForSet().remove(orderKey, userId.toString());
+            }
+        }
+        if (r == null) {
             return Result.fail("STOCK not enough");
         }
-
-
-        // redis分布式锁
-        Long userId = UserHolder.getUser().getId();
-        SimpleRedisLock lock = new SimpleRedisLock(stringRedisTemplate, "order:" + userId);
-
-        boolean hasLock = lock.tryLock(99999);
-        if (!hasLock) {
-            return Result.fail("one order ONLY");
+        if (r == 1) {
+            seckillVoucherCache.markSoldOut(voucherId);
+            return Result.fail("STOCK not enough");
         }
-        try {
-            IVoucherOrderService proxy = (IVoucherOrderService) AopContext.currentProxy();
-            return proxy.createVoucherOrder(voucherId);
-        } finally {
-            lock.unlock();
+        if (r == 2) {
+            return Result.fail("Voucher bought already");
         }
 
-//        // intern 确保以id值为唯一锁
-//        synchronized (UserHolder.getUser().getId().toString().intern()) {
-//            /**
-//             * 获取事务代理对象
-//             */
-//            IVoucherOrderService proxy = (IVoucherOrderService) AopContext.currentProxy();
-//            return proxy.createVoucherOrder(voucherId);
-//        }
+        return Result.ok(orderId);
     }
 
+    /**
+     * 批量落库：同一优惠券的库存一次扣减，订单多行插入
+     * 消息可能重复投递，已落库的订单会被过滤；并发重复投递由 uk_user_voucher 唯一索引拒绝，整个事务回滚
+     */
+    @Override
     @Transactional
-    public Result createVoucherOrder(Long voucherId) {
-        // one user one order
-        Long userId = UserHolder.getUser().getId();
-        int count = query().eq("user_id", userId).eq("voucher_id", voucherId).count();
-        if (count > 0) {
-            return Result.fail("Voucher bought already");
+    public List<VoucherOrder> createVoucherOrders(List<VoucherOrder> voucherOrders) {
+        // one user one order, in batch
+        Map<String, VoucherOrder> unique = new LinkedHashMap<>();
+        for (VoucherOrder o : voucherOrders) {
+            unique.putIfAbsent(o.getUserId() + ":" + o.getVoucherId(), o);
         }
 
-        boolean success = seckillVoucherService.update()
-                .setSql("stock = stock - 1")
-                .eq("voucher_id", voucherId)
-                .gt("stock", 0)
-                .update();
-        if (!success) {
-            return Result.fail("STOCK not enough");
+        // one user one order, in db
+        Set<Long> userIds = voucherOrders.stream().map(VoucherOrder::getUserId).collect(Collectors.toSet());
+        Set<Long> voucherIds = voucherOrders.stream().map(VoucherOrder::getVoucherId).collect(Collectors.toSet());
+        for (VoucherOrder e : getBaseMapper().selectBought(voucherIds, userIds)) {
+            VoucherOrder o = unique.remove(e.getUserId() + ":" + e.getVoucherId());
+            if (o != null) {
+                log.debug("Voucher bought already: {}", o);
+            }
+        }
+        if (unique.isEmpty()) {
+            return Collections.emptyList();
         }
 
-        // create order
-        long orderId = redisIdWorker.nextId("seckillOrder");
-        VoucherOrder voucherOrder = VoucherOrder.builder()
-                .userId(userId)
-                .voucherId(voucherId)
-                .id(orderId)
-                .build();
-
-        save(voucherOrder);
+        // stock = stock - n, per voucher
+        Map<Long, List<VoucherOrder>> byVoucher = unique.values().stream()
+                .collect(Collectors.groupingBy(VoucherOrder::getVoucherId));
+        List<VoucherOrder> toSave = new ArrayList<>(unique.size());
+        List<VoucherOrder> rejected = new ArrayList<>();
+        byVoucher.forEach((voucherId, orders) -> {
+            if (seckillVoucherService.decreaseStock(voucherId, orders.size())) {
+                toSave.addAll(orders);
+                return;
+            }
+            // 数据库库存不够整批扣减时逐单扣减
+            for (VoucherOrder o : orders) {
+                if (seckillVoucherService.decreaseStock(voucherId, 1)) {
+                    toSave.add(o);
+                } else {
+                    log.error("STOCK not enough: {}", o);
+                    rejected.add(o);
+                }
+            }
+        });
 
-        return Result.ok(orderId);
+        // create orders
+        if (!toSave.isEmpty()) {
+            getBaseMapper().insertBatch(toSave);
+        }
+        return rejected;
     }
 }
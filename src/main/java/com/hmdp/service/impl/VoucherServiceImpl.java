@@ -7,11 +7,28 @@ import com.hmdp.mapper.VoucherMapper;
 import com.hmdp.entity.SeckillVoucher;
 import com.hmdp.service.ISeckillVoucherService;
 import com.hmdp.service.IVoucherService;
+import com.hmdp.utils.SeckillVoucherCache;
+import com.hmdp.utils.HybridLock;
+import com.hmdp.utils.ILock;
+import com.hmdp.utils.RedisLockNotifier;
+import com.hmdp.utils.RedisReentrantLock;
+import org.springframework.data.redis.connection.stream.StreamInfo;
+import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 
+import javax.annotation.PostConstruct;
 import javax.annotation.Resource;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static com.hmdp.utils.RedisConstants.*;
 
 /**
  * <p>
@@ -27,6 +44,33 @@ public class VoucherServiceImpl extends ServiceImpl<VoucherMapper, Voucher> impl
     @Resource
     private ISeckillVoucherService seckillVoucherService;
 
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+
+    @Resource
+    private SeckillVoucherCache seckillVoucherCache;
+
+    @Resource
+    private RedisLockNotifier redisLockNotifier;
+
+    /**
+     * 启动时将未结束秒杀券的库存同步到 Redis，已存在的 key 不覆盖，并加载到本地快照
+     */
+    @PostConstruct
+    private void initSeckillStock() {
+        List<SeckillVoucher> vouchers = seckillVoucherService.query()
+                .gt("end_time", LocalDateTime.now())
+                .list();
+        for (SeckillVoucher v : vouchers) {
+            seckillVoucherCache.put(v);
+            // 分片库存只在新增时写入
+            if (v.getShards() <= 1) {
+                stringRedisTemplate.opsForValue()
+                        .setIfAbsent(SECKILL_STOCK_KEY + v.getVoucherId(), v.getStock().toString());
+            }
+        }
+    }
+
     @Override
     public Result queryVoucherOfShop(Long shopId) {
         // 查询优惠券信息
@@ -47,5 +91,104 @@ public class VoucherServiceImpl extends ServiceImpl<VoucherMapper, Voucher> impl
         seckillVoucher.setBeginTime(voucher.getBeginTime());
         seckillVoucher.setEndTime(voucher.getEndTime());
         seckillVoucherService.save(seckillVoucher);
+        // 保存秒杀库存到Redis，可拆分到多个分片
+        int shards = voucher.getShards() == null ? 1 : Math.max(1, Math.min(voucher.getShards(), SECKILL_MAX_SHARDS));
+        seckillVoucher.setShards(shards);
+        Map<String, String> stocks = new HashMap<>();
+        if (shards == 1) {
+            stocks.put(SECKILL_STOCK_KEY + voucher.getId(), voucher.getStock().toString());
+        } else {
+            int base = voucher.getStock() / shards;
+            int remainder = voucher.getStock() % shards;
+            for (int i = 0; i < shards; i++) {
+                stocks.put(SeckillVoucherCache.stockKey(voucher.getId(), shards, i), String.valueOf(base + (i < remainder ? 1 : 0)));
+            }
+            stocks.put(SECKILL_SHARDS_KEY + voucher.getId(), String.valueOf(shards));
+        }
+        // 事务提交后再写 redis 并通知其他节点，回滚时不会留下没有数据库记录的库存
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+            @Override
+            public void afterCommit() {
+                stringRedisTemplate.opsForValue().multiSet(stocks);
+                // 本地快照，并通知其他节点
+                seckillVoucherCache.add(seckillVoucher);
+            }
+        });
+    }
+
+    /**
+     * 将 redis 中的剩余库存（所有分片之和）同步回 tb_seckill_voucher.stock
+     * 只在秒杀结束且订单消息全部落库后执行，否则之后落库的订单会再扣减一次数据库库存
+     * @param voucherId
+     * @return redis 与数据库中的库存
+     */
+    @Override
+    public Result reconcileSeckillStock(Long voucherId) {
+        SeckillVoucher seckillVoucher = seckillVoucherService.getById(voucherId);
+        if (seckillVoucher == null) {
+            return Result.fail("VOUCHER not exist");
+        }
+        // 秒杀结束后不再产生新的订单消息
+        if (!seckillVoucher.getEndTime().isBefore(LocalDateTime.now())) {
+            return Result.fail("seckill not ended");
+        }
+        // 同时发起的同步排队执行，同一节点上的先在本地排队
+        String lockName = LOCK_SECKILL_RECONCILE + voucherId;
+        ILock lock = new HybridLock(lockName, new RedisReentrantLock(stringRedisTemplate, redisLockNotifier, lockName));
+        if (!lock.tryLock(LOCK_SECKILL_RECONCILE_WAIT, -1, TimeUnit.SECONDS)) {
+            return Result.fail("reconcile running");
+        }
+        try {
+            // sum of shards
+            String shardsVal = stringRedisTemplate.opsForValue().get(SECKILL_SHARDS_KEY + voucherId);
+            int shards = shardsVal == null ? 1 : Integer.parseInt(shardsVal);
+            if (!ordersDrained(shards)) {
+                return Result.fail("orders in flight, retry later");
+            }
+
+            List<String> keys = new ArrayList<>(shards);
+            for (int i = 0; i < shards; i++) {
+                keys.add(SeckillVoucherCache.stockKey(voucherId, shards, i));
+            }
+            List<String> values = stringRedisTemplate.opsForValue().multiGet(keys);
+            int redisStock = 0;
+            if (values != null) {
+                for (String v : values) {
+                    redisStock += v == null ? 0 : Math.max(0, Integer.parseInt(v));
+                }
+            }
+
+            seckillVoucherService.update()
+                    .set("stock", redisStock)
+                    .eq("voucher_id", voucherId)
+                    .update();
+            // 还有库存时所有节点重新放行
+            if (redisStock > 0) {
+                seckillVoucherCache.clearSoldOut(voucherId);
+            }
+
+            Map<String, Object> res = new HashMap<>();
+            res.put("shards", shards);
+            res.put("redisStock", redisStock);
+            res.put("dbStockBefore", seckillVoucher.getStock());
+            return Result.ok(res);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // 秒杀券可能用到的队列中的订单消息都已投递且已确认
+    private boolean ordersDrained(int shards) {
+        return SeckillVoucherCache.streamKeys(shards).stream().allMatch(this::ordersDrained);
+    }
+
+    private boolean ordersDrained(String streamKey) {
+        if (!Boolean.TRUE.equals(stringRedisTemplate.hasKey(streamKey))) {
+            return true;
+        }
+        StreamInfo.XInfoStream stream = stringRedisTemplate.opsForStream().info(streamKey);
+        StreamInfo.XInfoGroups groups = stringRedisTemplate.opsForStream().groups(streamKey);
+        return groups.stream().allMatch(g -> g.pendingCount() == 0
+                && stream.lastGeneratedId().equals(g.lastDeliveredId()));
     }
 }
@@ -0,0 +1,255 @@
+package com.hmdp.utils;
+
+import cn.hutool.core.thread.NamedThreadFactory;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.data.redis.core.ReactiveRedisTemplate;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Scheduler;
+import reactor.core.scheduler.Schedulers;
+
+import javax.annotation.PreDestroy;
+import javax.annotation.Resource;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+import static com.hmdp.utils.RedisConstants.*;
+
+/**
+ * 非阻塞的 CacheClient，Redis 访问基于 Lettuce 响应式命令，查库在独立的有界线程池执行
+ * 本地缓存、布隆过滤器、编解码、重建与指标和 CacheClient 共用
+ */
+@Component
+@Slf4j
+public class AsyncCacheClient {
+
+    @Resource
+    private ReactiveRedisTemplate<String, byte[]> reactiveCacheRedisTemplate;
+    @Resource
+    private CacheClient cacheClient;
+    @Resource
+    private CacheCodec cacheCodec;
+    @Resource
+    private CacheMetrics cacheMetrics;
+
+    /**
+     * 查库及其他阻塞操作，队列满时直接失败，不占用 Web 线程
+     */
+    private final ThreadPoolExecutor dbExecutor = new ThreadPoolExecutor(
+            CACHE_ASYNC_DB_THREADS, CACHE_ASYNC_DB_THREADS, 0L, TimeUnit.MILLISECONDS,
+            new ArrayBlockingQueue<>(CACHE_ASYNC_DB_QUEUE_CAPACITY),
+            new NamedThreadFactory("cache-db-", true)
+    );
+    private final Scheduler dbScheduler = Schedulers.fromExecutorService(dbExecutor);
+
+    /**
+     * 正在进行中的加载，key -> 共享结果
+     */
+    private final Map<String, CompletableFuture<Object>> inFlightLoads = new ConcurrentHashMap<>();
+
+    @PreDestroy
+    private void destroy() {
+        dbScheduler.dispose();
+    }
+
+
+    /**
+     * 解决缓存穿透
+     * @see CacheClient#getPassThrough
+     */
+    public <R, ID> CompletableFuture<R> getPassThrough(
+            String keyPrefix, ID id,
+            Class<R> type, Function<ID, R> dbFallback,
+            Integer time, TimeUnit unit
+    ) {
+        return getPassThroughMono(keyPrefix, id, type, dbFallback, time, unit).toFuture();
+    }
+
+    public <R, ID> Mono<R> getPassThroughMono(
+            String keyPrefix, ID id,
+            Class<R> type, Function<ID, R> dbFallback,
+            Integer time, TimeUnit unit
+    ) {
+        String redisKey = keyPrefix + id;
+        // get from local cache
+        R local = cacheClient.getLocal(redisKey, type);
+        if (local != null) {
+            cacheMetrics.record(keyPrefix, CacheMetrics.LOCAL_HIT);
+            return Mono.just(local);
+        }
+
+        // id not exist at all
+        if (cacheClient.bloomRejectsLocally(keyPrefix, id)) {
+            cacheMetrics.record(keyPrefix, CacheMetrics.BLOOM_REJECT);
+            return Mono.empty();
+        }
+
+        // concurrent misses on this node share one redis read and one db load
+        return singleFlight(redisKey, () -> loadPassThrough(keyPrefix, id, type, dbFallback, time, unit));
+    }
+
+    private <R, ID> Mono<R> loadPassThrough(
+            String keyPrefix, ID id,
+            Class<R> type, Function<ID, R> dbFallback,
+            Integer time, TimeUnit unit
+    ) {
+        String redisKey = keyPrefix + id;
+        return reactiveCacheRedisTemplate.opsForValue().get(redisKey)
+                .map(bytes -> {
+                    // empty value: not exist in DB
+                    if (bytes.length == 0) {
+                        cacheMetrics.record(keyPrefix, CacheMetrics.NULL_HIT);
+                        return Mono.<R>empty();
+                    }
+                    cacheMetrics.record(keyPrefix, CacheMetrics.HIT);
+                    R r = cacheClient.decode(bytes, type);
+                    cacheClient.putLocal(redisKey, r);
+                    return Mono.just(r);
+                })
+                .switchIfEmpty(Mono.fromSupplier(() -> {
+                    cacheMetrics.record(keyPrefix, CacheMetrics.MISS);
+                    return loadFromDb(keyPrefix, id, dbFallback).flatMap(r -> save(redisKey, r, time, unit));
+                }))
+                .flatMap(Function.identity());
+    }
+
+    // 查库，执行在 dbExecutor 上，结果不存在时写入空值；线程池已满时以 RejectedExecutionException 结束
+    private <R, ID> Mono<R> loadFromDb(String keyPrefix, ID id, Function<ID, R> dbFallback) {
+        String redisKey = keyPrefix + id;
+        return Mono.fromCallable(() -> {
+                    long begin = System.nanoTime();
+                    try {
+                        return dbFallback.apply(id);
+                    } finally {
+                        cacheMetrics.recordDbFallbackTime(keyPrefix, System.nanoTime() - begin);
+                    }
+                })
+                .subscribeOn(dbScheduler)
+                .doOnError(RejectedExecutionException.class, e -> {
+                    cacheMetrics.record(keyPrefix, CacheMetrics.DB_REJECTED);
+                    log.warn("cache db fallback rejected, db executor full: {}", redisKey);
+                })
+                .switchIfEmpty(reactiveCacheRedisTemplate.opsForValue()
+                        // 解决缓存穿透
+                        .set(redisKey, new byte[0], Duration.ofMinutes(CACHE_NULL_TTL))
+                        .then(Mono.empty()));
+    }
+
+    private <R> Mono<R> save(String redisKey, R r, Integer time, TimeUnit unit) {
+        cacheClient.putLocal(redisKey, r);
+        return reactiveCacheRedisTemplate.opsForValue()
+                .set(redisKey, cacheCodec.encode(r), Duration.ofMillis(CacheClient.jitter(time, unit)))
+                .thenReturn(r);
+    }
+
+
+    /**
+     * 缓存击穿
+     * @see CacheClient#getLogicalExpire
+     */
+    public <R, ID> CompletableFuture<R> getLogicalExpire(
+            String keyPrefix, ID id,
+            Class<R> type, Function<ID, R> dbFallback,
+            Integer time, TimeUnit unit, String lockKeyPrefix
+    ) {
+        return getLogicalExpireMono(keyPrefix, id, type, dbFallback, time, unit, lockKeyPrefix, false).toFuture();
+    }
+
+    /**
+     * 缓存击穿，概率提前过期
+     * @see CacheClient#getLogicalExpireEarly
+     */
+    public <R, ID> CompletableFuture<R> getLogicalExpireEarly(
+            String keyPrefix, ID id,
+            Class<R> type, Function<ID, R> dbFallback,
+            Integer time, TimeUnit unit, String lockKeyPrefix
+    ) {
+        return getLogicalExpireMono(keyPrefix, id, type, dbFallback, time, unit, lockKeyPrefix, true).toFuture();
+    }
+
+    public <R, ID> Mono<R> getLogicalExpireMono(
+            String keyPrefix, ID id,
+            Class<R> type, Function<ID, R> dbFallback,
+            Integer time, TimeUnit unit, String lockKeyPrefix,
+            boolean early
+    ) {
+        String redisKey = keyPrefix + id;
+        cacheClient.recordHit(redisKey);
+        // get from local cache
+        R local = cacheClient.getLocal(redisKey, type);
+        if (local != null) {
+            cacheMetrics.record(keyPrefix, CacheMetrics.LOCAL_HIT);
+            return Mono.just(local);
+        }
+
+        // id not exist at all
+        if (cacheClient.bloomRejectsLocally(keyPrefix, id)) {
+            cacheMetrics.record(keyPrefix, CacheMetrics.BLOOM_REJECT);
+            return Mono.empty();
+        }
+
+        // get from redis, concurrent reads on this node share one GET
+        Mono<RedisData> read = singleFlight(redisKey, () -> reactiveCacheRedisTemplate.opsForValue().get(redisKey)
+                .map(bytes -> cacheClient.decodeLogicalExpire(bytes, type)));
+        return read
+                .switchIfEmpty(Mono.fromRunnable(() -> cacheMetrics.record(keyPrefix, CacheMetrics.MISS)))
+                .map(redisData -> {
+                    @SuppressWarnings("unchecked")
+                    R r = (R) redisData.getData();
+                    LocalDateTime expireTime = redisData.getExpireTime();
+                    boolean expired = !expireTime.isAfter(LocalDateTime.now());
+                    if (expired) {
+                        cacheMetrics.record(keyPrefix, CacheMetrics.STALE);
+                    } else {
+                        cacheMetrics.record(keyPrefix, CacheMetrics.HIT);
+                        cacheClient.putLocal(redisKey, r);
+                    }
+                    if (expired || (early && CacheClient.shouldRefreshEarly(redisData))) {
+                        // lock and rebuild use blocking redis calls, keep them off the event loop
+                        try {
+                            dbScheduler.schedule(() -> cacheClient.rebuild(
+                                    keyPrefix, id, lockKeyPrefix + id, r, expireTime, type, dbFallback, time, unit));
+                        } catch (RejectedExecutionException e) {
+                            // serve the stale value
+                            cacheMetrics.record(keyPrefix, CacheMetrics.DB_REJECTED);
+                            log.warn("cache rebuild skipped, db executor full: {}", redisKey);
+                        }
+                    }
+                    return r;
+                });
+    }
+
+
+    /**
+     * 同一节点上相同key的并发加载只订阅一次，其余订阅者共享结果
+     */
+    @SuppressWarnings("unchecked")
+    private <T> Mono<T> singleFlight(String key, Supplier<Mono<T>> loader) {
+        CompletableFuture<Object> future = new CompletableFuture<>();
+        CompletableFuture<Object> inFlight = inFlightLoads.putIfAbsent(key, future);
+        if (inFlight != null) {
+            return Mono.fromFuture(inFlight).map(value -> (T) value);
+        }
+
+        Mono<T> mono;
+        try {
+            mono = loader.get();
+        } catch (RuntimeException e) {
+            inFlightLoads.remove(key, future);
+            future.completeExceptionally(e);
+            return Mono.error(e);
+        }
+        mono.doFinally(signal -> inFlightLoads.remove(key, future))
+                .subscribe(future::complete, future::completeExceptionally, () -> future.complete(null));
+        return Mono.fromFuture(future).map(value -> (T) value);
+    }
+}
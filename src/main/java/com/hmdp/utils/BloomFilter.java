@@ -0,0 +1,66 @@
+package com.hmdp.utils;
+
+import cn.hutool.core.lang.hash.MurmurHash;
+
+import java.util.Collection;
+
+/**
+ * 布隆过滤器，用于在访问 Redis / DB 之前拦截不存在的 id（缓存穿透）
+ * 位数组的存放位置由子类决定
+ */
+public abstract class BloomFilter {
+
+    protected final long numBits;
+    protected final int numHashes;
+
+    /**
+     * @param expectedInsertions 预计元素数量
+     * @param fpp 期望误判率
+     */
+    protected BloomFilter(long expectedInsertions, double fpp) {
+        long n = Math.max(1, expectedInsertions);
+        this.numBits = Math.max(64, (long) (-n * Math.log(fpp) / (Math.log(2) * Math.log(2))));
+        this.numHashes = Math.max(1, (int) Math.round((double) numBits / n * Math.log(2)));
+    }
+
+    /**
+     * 是否可能存在，返回 false 代表一定不存在
+     */
+    public boolean mightContain(String value) {
+        return getBits(positions(value));
+    }
+
+    public void put(String value) {
+        setBits(positions(value));
+    }
+
+    public void putAll(Collection<String> values) {
+        for (String value : values) {
+            put(value);
+        }
+    }
+
+    /**
+     * 位数组是否在多个节点间共享，共享的过滤器不需要广播新增元素
+     */
+    public boolean isShared() {
+        return false;
+    }
+
+    // 所有位都为1时返回true
+    protected abstract boolean getBits(long[] positions);
+
+    protected abstract void setBits(long[] positions);
+
+    // double hashing: h1 + i * h2
+    protected long[] positions(String value) {
+        long[] hash = MurmurHash.hash128(value);
+        long[] positions = new long[numHashes];
+        long combined = hash[0];
+        for (int i = 0; i < numHashes; i++) {
+            positions[i] = (combined & Long.MAX_VALUE) % numBits;
+            combined += hash[1];
+        }
+        return positions;
+    }
+}
@@ -1,32 +1,249 @@
 package com.hmdp.utils;
 
 import cn.hutool.core.util.BooleanUtil;
-import cn.hutool.core.util.StrUtil;
 import cn.hutool.json.JSONObject;
 import cn.hutool.json.JSONUtil;
-import com.hmdp.entity.Shop;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.connection.Message;
+import org.springframework.data.redis.connection.MessageListener;
+import org.springframework.data.redis.connection.RedisConnection;
+import org.springframework.data.redis.connection.RedisStringCommands;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.core.types.Expiration;
 import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
 import org.springframework.stereotype.Component;
 
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.annotation.Resource;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
 import java.time.LocalDateTime;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
 import java.util.function.Function;
+import java.util.function.Supplier;
 
 import static com.hmdp.utils.RedisConstants.*;
 
 @Component
 @Slf4j
-public class CacheClient {
+public class CacheClient implements MessageListener {
 
     private final StringRedisTemplate stringRedisTemplate;
 
+    /**
+     * 缓存值以 cacheCodec 编码后的字节存储
+     */
+    @Resource
+    private RedisTemplate<String, byte[]> cacheRedisTemplate;
+    @Resource
+    private CacheCodec cacheCodec;
+
+    // 读取时按内容识别格式，hmdp.cache.codec 只决定写入格式，切换期间两种格式可以共存
+    private final CacheCodec jsonReader = new JsonCacheCodec();
+    private final CacheCodec smileReader = new SmileCacheCodec();
+
+    @Resource
+    private RedisMessageListenerContainer redisMessageListenerContainer;
+    @Resource
+    private CacheMetrics cacheMetrics;
+
+    /**
+     * 还没有重建过的key（预热、手动写入）使用的重建耗时估计，用于概率提前过期
+     */
+    @Value("${hmdp.cache.default-rebuild-millis:50}")
+    private long defaultRebuildMillis;
+
+    /**
+     * 本地一级缓存，存放反序列化后的对象，各节点通过 CACHE_INVALIDATE_CHANNEL 保持一致
+     */
+    private final Cache<String, Object> localCache = Caffeine.newBuilder()
+            .maximumSize(CACHE_LOCAL_MAX_SIZE)
+            .expireAfterWrite(CACHE_LOCAL_TTL, TimeUnit.SECONDS)
+            .build();
+
+    /**
+     * key前缀 -> 布隆过滤器
+     */
+    private final Map<String, BloomFilter> bloomFilters = new ConcurrentHashMap<>();
+    // 重建中的布隆过滤器，期间新增的id同时写入
+    private final Map<String, BloomFilter> buildingBloomFilters = new ConcurrentHashMap<>();
+
+    /**
+     * 正在进行中的加载，key -> 共享结果
+     */
+    private final Map<String, CompletableFuture<Object>> inFlightLoads = new ConcurrentHashMap<>();
+
+    /**
+     * 当前线程正在加载的key
+     */
+    private static final ThreadLocal<Set<String>> LOADING_KEYS = ThreadLocal.withInitial(HashSet::new);
+
+    /**
+     * 逻辑过期key的近期访问次数，越热的key重建优先级越高
+     */
+    private final Cache<String, LongAdder> keyHits = Caffeine.newBuilder()
+            .maximumSize(CACHE_LOCAL_MAX_SIZE)
+            .expireAfterAccess(CACHE_HITS_WINDOW, TimeUnit.SECONDS)
+            .build();
+
     public CacheClient(StringRedisTemplate stringRedisTemplate) {
         this.stringRedisTemplate = stringRedisTemplate;
     }
 
+    @PostConstruct
+    private void init() {
+        redisMessageListenerContainer.addMessageListener(this, new ChannelTopic(CACHE_INVALIDATE_CHANNEL));
+        redisMessageListenerContainer.addMessageListener(this, new ChannelTopic(CACHE_BLOOM_CHANNEL));
+        cacheMetrics.bindRebuildExecutor(rebuildExecutor);
+    }
+
+
+    /**
+     * 为某个key前缀注册布隆过滤器，查询前先判断id是否可能存在
+     * @param keyPrefix
+     * @param bloomFilter
+     */
+    public void registerBloomFilter(String keyPrefix, BloomFilter bloomFilter) {
+        bloomFilters.put(keyPrefix, bloomFilter);
+    }
+
+    /**
+     * 用全部id填充新的布隆过滤器后替换原过滤器，用于定期修复进程内过滤器漏掉的id
+     * @param keyPrefix
+     * @param bloomFilter 空的过滤器
+     * @param ids 全部id
+     */
+    public void rebuildBloomFilter(String keyPrefix, BloomFilter bloomFilter, Supplier<? extends Collection<String>> ids) {
+        buildingBloomFilters.put(keyPrefix, bloomFilter);
+        try {
+            bloomFilter.putAll(ids.get());
+            bloomFilters.put(keyPrefix, bloomFilter);
+        } finally {
+            buildingBloomFilters.remove(keyPrefix);
+        }
+    }
+
+    /**
+     * 新增数据后写入布隆过滤器，非共享的过滤器需要广播给其他节点
+     * @param keyPrefix
+     * @param id
+     */
+    public <ID> void bloomPut(String keyPrefix, ID id) {
+        BloomFilter bloomFilter = bloomFilters.get(keyPrefix);
+        if (bloomFilter == null) {
+            return;
+        }
+        bloomFilter.put(String.valueOf(id));
+        if (!bloomFilter.isShared()) {
+            putBuilding(keyPrefix, String.valueOf(id));
+            stringRedisTemplate.convertAndSend(CACHE_BLOOM_CHANNEL, keyPrefix + id);
+        }
+    }
+
+    // 查库并记录耗时
+    private <T> T loadFromDb(String keyPrefix, Supplier<T> loader) {
+        long begin = System.nanoTime();
+        try {
+            return loader.get();
+        } finally {
+            cacheMetrics.recordDbFallbackTime(keyPrefix, System.nanoTime() - begin);
+        }
+    }
+
+    // 布隆过滤器判断一定不存在
+    <ID> boolean bloomRejects(String keyPrefix, ID id) {
+        BloomFilter bloomFilter = bloomFilters.get(keyPrefix);
+        return bloomFilter != null && !bloomFilter.mightContain(String.valueOf(id));
+    }
+
+    // 只使用进程内的布隆过滤器判断，共享的过滤器需要访问 redis，视为可能存在
+    <ID> boolean bloomRejectsLocally(String keyPrefix, ID id) {
+        BloomFilter bloomFilter = bloomFilters.get(keyPrefix);
+        return bloomFilter != null && !bloomFilter.isShared() && !bloomFilter.mightContain(String.valueOf(id));
+    }
+
+
+    /**
+     * 删除缓存，并通知所有节点清除本地缓存
+     * @param key
+     */
+    public void delete(String key) {
+        stringRedisTemplate.delete(key);
+        localCache.invalidate(key);
+        stringRedisTemplate.convertAndSend(CACHE_INVALIDATE_CHANNEL, key);
+    }
+
+    /**
+     * 收到其他节点的失效通知或布隆过滤器新增通知
+     */
+    @Override
+    public void onMessage(Message message, byte[] pattern) {
+        String channel = new String(message.getChannel(), StandardCharsets.UTF_8);
+        String key = new String(message.getBody(), StandardCharsets.UTF_8);
+        if (CACHE_BLOOM_CHANNEL.equals(channel)) {
+            bloomFilters.forEach((keyPrefix, bloomFilter) -> {
+                if (key.startsWith(keyPrefix)) {
+                    bloomFilter.put(key.substring(keyPrefix.length()));
+                    putBuilding(keyPrefix, key.substring(keyPrefix.length()));
+                }
+            });
+            return;
+        }
+        localCache.invalidate(key);
+    }
+
+    private void putBuilding(String keyPrefix, String id) {
+        BloomFilter building = buildingBloomFilters.get(keyPrefix);
+        if (building != null) {
+            building.put(id);
+        }
+    }
+
+    // 读取本地缓存
+    <R> R getLocal(String key, Class<R> type) {
+        Object val = localCache.getIfPresent(key);
+        return type.isInstance(val) ? type.cast(val) : null;
+    }
+
+    void putLocal(String key, Object val) {
+        localCache.put(key, val);
+    }
+
+    // 解码缓存值，兼容旧的 hutool JSON 格式
+    <R> R decode(byte[] bytes, Class<R> type) {
+        if (RedisData.isLegacyJson(bytes)) {
+            return JSONUtil.toBean(new String(bytes, StandardCharsets.UTF_8), type);
+        }
+        return decodePayload(bytes, 0, bytes.length, type);
+    }
+
+    private <R> R decodePayload(byte[] bytes, int offset, int length, Class<R> type) {
+        CacheCodec codec = SmileCacheCodec.isSmile(bytes, offset, length) ? smileReader : jsonReader;
+        return codec.decode(bytes, offset, length, type);
+    }
+
 
     /**
      * 设置缓存
@@ -36,7 +253,10 @@ public class CacheClient {
      * @param unit
      */
     public void set(String key, Object val, Integer time, TimeUnit unit) {
-        stringRedisTemplate.opsForValue().set(key, JSONUtil.toJsonStr(val), time, unit);
+        cacheRedisTemplate.opsForValue().set(key, cacheCodec.encode(val), jitter(time, unit), TimeUnit.MILLISECONDS);
+        // other nodes drop their local copy too
+        localCache.invalidate(key);
+        stringRedisTemplate.convertAndSend(CACHE_INVALIDATE_CHANNEL, key);
     }
 
 
@@ -48,11 +268,63 @@ public class CacheClient {
      * @param unit
      */
     public void setLogicalExpire(String key, Object val, Integer time, TimeUnit unit) {
-        RedisData redisData = new RedisData();
-        redisData.setData(val);
-        redisData.setExpireTime(LocalDateTime.now().plusSeconds(unit.toSeconds(time)));
+        setLogicalExpire(key, val, time, unit, defaultRebuildMillis);
+    }
+
+    private void setLogicalExpire(String key, Object val, Integer time, TimeUnit unit, long deltaMillis) {
+        long expireMillis = System.currentTimeMillis() + jitter(time, unit);
+        int delta = (int) Math.min(deltaMillis, Integer.MAX_VALUE);
 
-        stringRedisTemplate.opsForValue().set(key, JSONUtil.toJsonStr(redisData));
+        cacheRedisTemplate.opsForValue().set(key, cacheCodec.encodeLogicalExpire(expireMillis, delta, val));
+        // other nodes drop their local copy, including after an async rebuild
+        localCache.invalidate(key);
+        stringRedisTemplate.convertAndSend(CACHE_INVALIDATE_CHANNEL, key);
+    }
+
+    /**
+     * 批量设置逻辑过期缓存，通过 pipeline 一次写入
+     * 不广播失效，其他节点的本地缓存最多在 CACHE_LOCAL_TTL 后更新
+     * @param values key -> 数据
+     * @param time
+     * @param unit
+     */
+    public void setLogicalExpireBatch(Map<String, ?> values, Integer time, TimeUnit unit) {
+        setLogicalExpireBatch(values, time, unit, defaultRebuildMillis);
+    }
+
+    /**
+     * 批量设置逻辑过期缓存
+     * @param deltaMillis 单个key的重建耗时估计，不小于默认值
+     */
+    public void setLogicalExpireBatch(Map<String, ?> values, Integer time, TimeUnit unit, long deltaMillis) {
+        long now = System.currentTimeMillis();
+        int delta = (int) Math.min(Math.max(deltaMillis, defaultRebuildMillis), Integer.MAX_VALUE);
+        Map<byte[], byte[]> encoded = new LinkedHashMap<>(values.size());
+        values.forEach((key, val) -> encoded.put(
+                key.getBytes(StandardCharsets.UTF_8),
+                cacheCodec.encodeLogicalExpire(now + jitter(time, unit), delta, val)));
+
+        cacheRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            encoded.forEach((key, bytes) -> connection.stringCommands().set(key, bytes));
+            return null;
+        });
+        localCache.invalidateAll(values.keySet());
+    }
+
+    // TTL 加上随机抖动，单位毫秒
+    static long jitter(Integer time, TimeUnit unit) {
+        long millis = unit.toMillis(time);
+        long bound = (long) (millis * CACHE_TTL_JITTER_RATIO);
+        return bound > 0 ? millis + ThreadLocalRandom.current().nextLong(bound) : millis;
+    }
+
+    /**
+     * 概率提前过期(XFetch)：离过期越近、重建越慢，越可能提前触发刷新
+     * now - delta * beta * ln(rand) >= expireTime
+     */
+    static boolean shouldRefreshEarly(RedisData redisData) {
+        double gap = -redisData.getDelta() * CACHE_XFETCH_BETA * Math.log(ThreadLocalRandom.current().nextDouble());
+        return !LocalDateTime.now().plusNanos((long) (gap * 1_000_000)).isBefore(redisData.getExpireTime());
     }
 
 
@@ -72,38 +344,148 @@ public class CacheClient {
             String keyPrefix, ID id,
             Class<R> type, Function<ID, R> dbFallback,
             Integer time, TimeUnit unit
+    ) {
+        String redisKey = keyPrefix + id;
+        // get from local cache
+        R local = getLocal(redisKey, type);
+        if (local != null) {
+            cacheMetrics.record(keyPrefix, CacheMetrics.LOCAL_HIT);
+            return local;
+        }
+
+        // id not exist at all
+        if (bloomRejects(keyPrefix, id)) {
+            cacheMetrics.record(keyPrefix, CacheMetrics.BLOOM_REJECT);
+            return null;
+        }
+
+        // concurrent misses on this node share one redis read and one db load
+        return singleFlight(redisKey, () -> loadPassThrough(keyPrefix, id, type, dbFallback, time, unit));
+    }
+
+    private <R, ID> R loadPassThrough(
+            String keyPrefix, ID id,
+            Class<R> type, Function<ID, R> dbFallback,
+            Integer time, TimeUnit unit
     ) {
         String redisKey = keyPrefix + id;
         // get from redis
-        String json = stringRedisTemplate.opsForValue().get(redisKey);
+        byte[] bytes = cacheRedisTemplate.opsForValue().get(redisKey);
         // if exist
-        if (StrUtil.isNotBlank(json)) {
-            return JSONUtil.toBean(json, type);
+        if (bytes != null && bytes.length > 0) {
+            cacheMetrics.record(keyPrefix, CacheMetrics.HIT);
+            R r = decode(bytes, type);
+            localCache.put(redisKey, r);
+            return r;
         }
 
         // not exist in DB
         // 解决缓存穿透
-        if (json != null) {
+        if (bytes != null) {
+            cacheMetrics.record(keyPrefix, CacheMetrics.NULL_HIT);
             return null;
         }
 
         // get from db
-        R r = dbFallback.apply(id);
+        cacheMetrics.record(keyPrefix, CacheMetrics.MISS);
+        R r = loadFromDb(keyPrefix, () -> dbFallback.apply(id));
 
         if (r == null) {
             // 解决缓存穿透
-            stringRedisTemplate.opsForValue().set(redisKey, "", CACHE_NULL_TTL, TimeUnit.MINUTES);
+            cacheRedisTemplate.opsForValue().set(redisKey, new byte[0], CACHE_NULL_TTL, TimeUnit.MINUTES);
             return null;
         }
 
         // save in redis
-        stringRedisTemplate.opsForValue().set(redisKey, JSONUtil.toJsonStr(r), time, unit);
+        cacheRedisTemplate.opsForValue().set(redisKey, cacheCodec.encode(r), jitter(time, unit), TimeUnit.MILLISECONDS);
+        localCache.put(redisKey, r);
 
         return r;
     }
 
 
-    private static final ExecutorService CACHE_REBUILD_EXECUTOR = Executors.newFixedThreadPool(10);
+    // 读取逻辑过期数据，data 已转换为目标类型
+    private <R> RedisData readLogicalExpire(String redisKey, Class<R> type) {
+        return decodeLogicalExpire(cacheRedisTemplate.opsForValue().get(redisKey), type);
+    }
+
+    <R> RedisData decodeLogicalExpire(byte[] bytes, Class<R> type) {
+        if (bytes == null || bytes.length == 0) {
+            return null;
+        }
+        if (RedisData.isLegacyJson(bytes)) {
+            RedisData redisData = JSONUtil.toBean(new String(bytes, StandardCharsets.UTF_8), RedisData.class);
+            redisData.setData(JSONUtil.toBean((JSONObject) redisData.getData(), type));
+            return redisData;
+        }
+
+        RedisData redisData = new RedisData();
+        redisData.setExpireTime(LocalDateTime.ofInstant(
+                Instant.ofEpochMilli(RedisData.expireMillis(bytes)), ZoneId.systemDefault()));
+        redisData.setDelta(RedisData.deltaMillis(bytes));
+        redisData.setData(decodePayload(
+                bytes, RedisData.HEADER_LENGTH, bytes.length - RedisData.HEADER_LENGTH, type));
+        return redisData;
+    }
+
+
+    /**
+     * 同一节点上相同key的并发加载只执行一次，其余线程等待并共享结果
+     * 加载过程中同一线程再次加载相同key（dbFallback 又经过缓存）时直接执行，不等待自己
+     * @param key
+     * @param loader
+     * @return
+     * @param <T>
+     */
+    @SuppressWarnings("unchecked")
+    private <T> T singleFlight(String key, Supplier<T> loader) {
+        Set<String> loading = LOADING_KEYS.get();
+        if (loading.contains(key)) {
+            // re-entered from inside the loader
+            return loader.get();
+        }
+        CompletableFuture<Object> future = new CompletableFuture<>();
+        CompletableFuture<Object> inFlight = inFlightLoads.putIfAbsent(key, future);
+        if (inFlight != null) {
+            try {
+                return (T) inFlight.join();
+            } catch (CompletionException e) {
+                throw e.getCause() instanceof RuntimeException ? (RuntimeException) e.getCause() : e;
+            }
+        }
+
+        loading.add(key);
+        try {
+            T value = loader.get();
+            future.complete(value);
+            return value;
+        } catch (RuntimeException e) {
+            future.completeExceptionally(e);
+            throw e;
+        } finally {
+            loading.remove(key);
+            inFlightLoads.remove(key, future);
+        }
+    }
+
+
+    private final CacheRebuildExecutor rebuildExecutor =
+            new CacheRebuildExecutor(CACHE_REBUILD_THREADS, CACHE_REBUILD_QUEUE_CAPACITY);
+
+    @PreDestroy
+    private void destroy() {
+        rebuildExecutor.shutdown();
+    }
+
+    // 记录key的访问次数，作为重建优先级
+    void recordHit(String key) {
+        keyHits.get(key, k -> new LongAdder()).increment();
+    }
+
+    private long hits(String key) {
+        LongAdder adder = keyHits.getIfPresent(key);
+        return adder == null ? 0 : adder.sum();
+    }
 
     // 获取线程锁
     private boolean tryLock(String key) {
@@ -133,22 +515,73 @@ public class CacheClient {
             String keyPrefix, ID id,
             Class<R> type, Function<ID, R> dbFallback,
             Integer time, TimeUnit unit, String lockKeyPrefix
+    ) {
+        return getLogicalExpire(keyPrefix, id, type, dbFallback, time, unit, lockKeyPrefix, false);
+    }
+
+
+    /**
+     * 缓存击穿，概率提前过期：过期前按重建耗时概率性地触发后台刷新，避免热点key同时过期
+     * @param keyPrefix
+     * @param id
+     * @param type
+     * @param dbFallback
+     * @param time
+     * @param unit
+     * @param lockKeyPrefix
+     * @return
+     * @param <R>
+     * @param <ID>
+     */
+    public <R, ID> R getLogicalExpireEarly(
+            String keyPrefix, ID id,
+            Class<R> type, Function<ID, R> dbFallback,
+            Integer time, TimeUnit unit, String lockKeyPrefix
+    ) {
+        return getLogicalExpire(keyPrefix, id, type, dbFallback, time, unit, lockKeyPrefix, true);
+    }
+
+    private <R, ID> R getLogicalExpire(
+            String keyPrefix, ID id,
+            Class<R> type, Function<ID, R> dbFallback,
+            Integer time, TimeUnit unit, String lockKeyPrefix,
+            boolean early
     ) {
         String redisKey = keyPrefix + id;
-        // get from redis
-        String json = stringRedisTemplate.opsForValue().get(redisKey);
+        recordHit(redisKey);
+        // get from local cache
+        R local = getLocal(redisKey, type);
+        if (local != null) {
+            cacheMetrics.record(keyPrefix, CacheMetrics.LOCAL_HIT);
+            return local;
+        }
+
+        // id not exist at all
+        if (bloomRejects(keyPrefix, id)) {
+            cacheMetrics.record(keyPrefix, CacheMetrics.BLOOM_REJECT);
+            return null;
+        }
+
+        // get from redis, concurrent reads on this node share one GET
+        RedisData redisData = singleFlight(redisKey, () -> readLogicalExpire(redisKey, type));
         // if shop not exist
-        if (StrUtil.isBlank(json)) {
+        if (redisData == null) {
+            cacheMetrics.record(keyPrefix, CacheMetrics.MISS);
             return null;
         }
 
         // hit, judge if expire
-        RedisData redisData = JSONUtil.toBean(json, RedisData.class);
-        R r = JSONUtil.toBean((JSONObject) redisData.getData(), type);
+        @SuppressWarnings("unchecked")
+        R r = (R) redisData.getData();
         LocalDateTime expireTime = redisData.getExpireTime();
 
         // not expire
         if (expireTime.isAfter(LocalDateTime.now())) {
+            cacheMetrics.record(keyPrefix, CacheMetrics.HIT);
+            localCache.put(redisKey, r);
+            if (early && shouldRefreshEarly(redisData)) {
+                rebuild(keyPrefix, id, lockKeyPrefix + id, r, expireTime, type, dbFallback, time, unit);
+            }
             return r;
         }
 
@@ -156,31 +589,238 @@ public class CacheClient {
         /*
          redis rebuild
         */
-        // get lock
-        String lockKey = lockKeyPrefix + id;
-        boolean gotLock = tryLock(lockKey);
-        if (gotLock) {
-            // success, retry redis
-            json = stringRedisTemplate.opsForValue().get(redisKey);
-            redisData = JSONUtil.toBean(json, RedisData.class);
-            // if already updated
-            if (redisData.getExpireTime().isAfter(LocalDateTime.now())) {
-                return JSONUtil.toBean((JSONObject) redisData.getData(), type);
+        cacheMetrics.record(keyPrefix, CacheMetrics.STALE);
+        return rebuild(keyPrefix, id, lockKeyPrefix + id, r, expireTime, type, dbFallback, time, unit);
+    }
+
+
+    /**
+     * 逻辑过期后异步重建缓存
+     * @return 其他节点已重建时返回新值，否则返回旧值
+     */
+    <R, ID> R rebuild(
+            String keyPrefix, ID id, String lockKey, R stale, LocalDateTime staleExpireTime,
+            Class<R> type, Function<ID, R> dbFallback,
+            Integer time, TimeUnit unit
+    ) {
+        String redisKey = keyPrefix + id;
+        // only one rebuild per key on this node, others keep serving stale data
+        if (!rebuildExecutor.reserve(lockKey)) {
+            return stale;
+        }
+        boolean handedOver = false;
+        try {
+            // get lock, contend with other nodes
+            if (!tryLock(lockKey)) {
+                return stale;
             }
+            try {
+                // success, retry redis
+                RedisData redisData = readLogicalExpire(redisKey, type);
+                // if already updated
+                if (redisData != null && redisData.getExpireTime().isAfter(staleExpireTime)) {
+                    @SuppressWarnings("unchecked")
+                    R updated = (R) redisData.getData();
+                    if (redisData.getExpireTime().isAfter(LocalDateTime.now())) {
+                        localCache.put(redisKey, updated);
+                    }
+                    return updated;
+                }
 
-            // fail, rebuild
-            CACHE_REBUILD_EXECUTOR.submit(() -> {
-                try {
-                    R r1 = dbFallback.apply(id);
-                    setLogicalExpire(redisKey, r1, time, unit);
-                } catch (Exception e) {
-                    throw new RuntimeException(e);
-                } finally {
+                // fail, rebuild, hottest keys first; a rejected task releases the lock right away
+                cacheMetrics.recordRebuild(keyPrefix, CacheMetrics.REBUILD_STARTED);
+                rebuildExecutor.submit(lockKey, hits(redisKey), () -> {
+                    long begin = System.nanoTime();
+                    try {
+                        R r1 = loadFromDb(keyPrefix, () -> dbFallback.apply(id));
+                        long delta = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - begin);
+                        setLogicalExpire(redisKey, r1, time, unit, delta);
+                        cacheMetrics.recordRebuild(keyPrefix, CacheMetrics.REBUILD_SUCCEEDED);
+                    } catch (RuntimeException e) {
+                        cacheMetrics.recordRebuild(keyPrefix, CacheMetrics.REBUILD_FAILED);
+                        throw e;
+                    } finally {
+                        cacheMetrics.recordRebuildTime(keyPrefix, System.nanoTime() - begin);
+                        unLock(lockKey);
+                    }
+                }, () -> {
+                    cacheMetrics.recordRebuild(keyPrefix, CacheMetrics.REBUILD_REJECTED);
+                    unLock(lockKey);
+                });
+                handedOver = true;
+            } finally {
+                if (!handedOver) {
                     unLock(lockKey);
                 }
-            });
+            }
+        } finally {
+            if (!handedOver) {
+                rebuildExecutor.cancel(lockKey);
+            }
         }
 
-        return r;
+        return stale;
+    }
+
+
+    /**
+     * 批量查询，解决缓存穿透：一次 MGET，未命中的id一次查库，结果通过 pipeline 写回
+     * @param keyPrefix
+     * @param ids
+     * @param type
+     * @param batchDbFallback 批量查库，返回 id -> 数据，不存在的id不放入
+     * @param time
+     * @param unit
+     * @return id -> 数据，不存在的id不放入
+     * @param <R>
+     * @param <ID>
+     */
+    public <R, ID> Map<ID, R> multiGet(
+            String keyPrefix, Collection<ID> ids,
+            Class<R> type, Function<Collection<ID>, Map<ID, R>> batchDbFallback,
+            Integer time, TimeUnit unit
+    ) {
+        Map<ID, R> result = new LinkedHashMap<>(ids.size());
+        List<ID> remoteIds = collectLocal(keyPrefix, ids, type, result);
+        if (remoteIds.isEmpty()) {
+            return result;
+        }
+
+        // get from redis
+        List<byte[]> values = cacheRedisTemplate.opsForValue().multiGet(keys(keyPrefix, remoteIds));
+        List<ID> missIds = new ArrayList<>();
+        for (int i = 0; i < remoteIds.size(); i++) {
+            ID id = remoteIds.get(i);
+            byte[] bytes = values == null ? null : values.get(i);
+            if (bytes == null) {
+                cacheMetrics.record(keyPrefix, CacheMetrics.MISS);
+                missIds.add(id);
+            } else if (bytes.length > 0) {
+                cacheMetrics.record(keyPrefix, CacheMetrics.HIT);
+                R r = decode(bytes, type);
+                localCache.put(keyPrefix + id, r);
+                result.put(id, r);
+            } else {
+                // empty value: not exist in DB
+                cacheMetrics.record(keyPrefix, CacheMetrics.NULL_HIT);
+            }
+        }
+        if (missIds.isEmpty()) {
+            return result;
+        }
+
+        // get from db, one query for all misses
+        Map<ID, R> loaded = loadFromDb(keyPrefix, () -> batchDbFallback.apply(missIds));
+        Map<String, byte[]> hits = new HashMap<>(loaded.size());
+        Map<String, byte[]> nulls = new HashMap<>();
+        for (ID id : missIds) {
+            R r = loaded.get(id);
+            if (r == null) {
+                // 解决缓存穿透
+                nulls.put(keyPrefix + id, new byte[0]);
+                continue;
+            }
+            hits.put(keyPrefix + id, cacheCodec.encode(r));
+            localCache.put(keyPrefix + id, r);
+            result.put(id, r);
+        }
+
+        // save in redis, one round trip
+        cacheRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            // jitter per key, otherwise the whole batch expires together
+            setAll(connection, hits, () -> Expiration.milliseconds(jitter(time, unit)));
+            Expiration nullExpiration = Expiration.from(CACHE_NULL_TTL, TimeUnit.MINUTES);
+            setAll(connection, nulls, () -> nullExpiration);
+            return null;
+        });
+
+        return result;
+    }
+
+
+    /**
+     * 批量查询，逻辑过期：一次 MGET，过期的key逐个提交异步重建
+     * @param keyPrefix
+     * @param ids
+     * @param type
+     * @param batchDbFallback 批量查库，重建时按单个id调用
+     * @param time
+     * @param unit
+     * @param lockKeyPrefix
+     * @return id -> 数据，缓存中不存在的id不放入
+     * @param <R>
+     * @param <ID>
+     */
+    public <R, ID> Map<ID, R> multiGetLogicalExpire(
+            String keyPrefix, Collection<ID> ids,
+            Class<R> type, Function<Collection<ID>, Map<ID, R>> batchDbFallback,
+            Integer time, TimeUnit unit, String lockKeyPrefix
+    ) {
+        Map<ID, R> result = new LinkedHashMap<>(ids.size());
+        for (ID id : ids) {
+            recordHit(keyPrefix + id);
+        }
+        List<ID> remoteIds = collectLocal(keyPrefix, ids, type, result);
+        if (remoteIds.isEmpty()) {
+            return result;
+        }
+
+        // get from redis
+        List<byte[]> values = cacheRedisTemplate.opsForValue().multiGet(keys(keyPrefix, remoteIds));
+        Function<ID, R> dbFallback = id -> batchDbFallback.apply(Collections.singletonList(id)).get(id);
+        LocalDateTime now = LocalDateTime.now();
+        for (int i = 0; i < remoteIds.size(); i++) {
+            ID id = remoteIds.get(i);
+            RedisData redisData = values == null ? null : decodeLogicalExpire(values.get(i), type);
+            // not exist
+            if (redisData == null) {
+                cacheMetrics.record(keyPrefix, CacheMetrics.MISS);
+                continue;
+            }
+            @SuppressWarnings("unchecked")
+            R r = (R) redisData.getData();
+            String redisKey = keyPrefix + id;
+            if (redisData.getExpireTime().isAfter(now)) {
+                cacheMetrics.record(keyPrefix, CacheMetrics.HIT);
+                localCache.put(redisKey, r);
+            } else {
+                cacheMetrics.record(keyPrefix, CacheMetrics.STALE);
+                r = rebuild(keyPrefix, id, lockKeyPrefix + id, r, redisData.getExpireTime(), type, dbFallback, time, unit);
+            }
+            result.put(id, r);
+        }
+
+        return result;
+    }
+
+    // 先查本地缓存和布隆过滤器，返回需要查询 redis 的id
+    private <R, ID> List<ID> collectLocal(String keyPrefix, Collection<ID> ids, Class<R> type, Map<ID, R> result) {
+        List<ID> remoteIds = new ArrayList<>(ids.size());
+        for (ID id : ids) {
+            R local = getLocal(keyPrefix + id, type);
+            if (local != null) {
+                cacheMetrics.record(keyPrefix, CacheMetrics.LOCAL_HIT);
+                result.put(id, local);
+            } else if (bloomRejects(keyPrefix, id)) {
+                cacheMetrics.record(keyPrefix, CacheMetrics.BLOOM_REJECT);
+            } else {
+                remoteIds.add(id);
+            }
+        }
+        return remoteIds;
+    }
+
+    private static <ID> List<String> keys(String keyPrefix, List<ID> ids) {
+        List<String> keys = new ArrayList<>(ids.size());
+        for (ID id : ids) {
+            keys.add(keyPrefix + id);
+        }
+        return keys;
+    }
+
+    // 每个key单独取一次过期时间
+    private static void setAll(RedisConnection connection, Map<String, byte[]> values, Supplier<Expiration> expiration) {
+        values.forEach((key, bytes) -> connection.stringCommands().set(
+                key.getBytes(StandardCharsets.UTF_8), bytes, expiration.get(), RedisStringCommands.SetOption.upsert()));
     }
 }
@@ -0,0 +1,22 @@
+package com.hmdp.utils;
+
+/**
+ * 缓存值编解码器
+ */
+public interface CacheCodec {
+
+    byte[] encode(Object value);
+
+    <R> R decode(byte[] bytes, int offset, int length, Class<R> type);
+
+    default <R> R decode(byte[] bytes, Class<R> type) {
+        return decode(bytes, 0, bytes.length, type);
+    }
+
+    /**
+     * 编码逻辑过期数据，默认为 RedisData 二进制格式
+     */
+    default byte[] encodeLogicalExpire(long expireMillis, int deltaMillis, Object value) {
+        return RedisData.wrap(expireMillis, deltaMillis, encode(value));
+    }
+}
@@ -0,0 +1,161 @@
+package com.hmdp.utils;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.distribution.ValueAtPercentile;
+import org.springframework.stereotype.Component;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 缓存指标，按key前缀统计，通过 Micrometer 暴露给 Actuator
+ */
+@Component
+public class CacheMetrics {
+
+    // 查询结果
+    public static final String LOCAL_HIT = "local_hit";
+    public static final String HIT = "hit";
+    public static final String NULL_HIT = "null_hit";
+    public static final String MISS = "miss";
+    public static final String STALE = "stale";
+    public static final String BLOOM_REJECT = "bloom_reject";
+    // 查库线程池已满，未能查库
+    public static final String DB_REJECTED = "db_rejected";
+    // 重建结果
+    public static final String REBUILD_STARTED = "started";
+    public static final String REBUILD_SUCCEEDED = "succeeded";
+    public static final String REBUILD_FAILED = "failed";
+    public static final String REBUILD_REJECTED = "rejected";
+
+    private static final String[] RESULTS = {LOCAL_HIT, HIT, NULL_HIT, MISS, STALE, BLOOM_REJECT, DB_REJECTED};
+    private static final String[] REBUILDS = {REBUILD_STARTED, REBUILD_SUCCEEDED, REBUILD_FAILED, REBUILD_REJECTED};
+
+    private final MeterRegistry meterRegistry;
+    private volatile CacheRebuildExecutor rebuildExecutor;
+
+    private final Set<String> prefixes = ConcurrentHashMap.newKeySet();
+    private final Map<String, Counter> counters = new ConcurrentHashMap<>();
+    private final Map<String, Timer> timers = new ConcurrentHashMap<>();
+
+    public CacheMetrics(MeterRegistry meterRegistry) {
+        this.meterRegistry = meterRegistry;
+    }
+
+    public void record(String prefix, String result) {
+        counter("cache.requests", prefix, "result", result).increment();
+    }
+
+    public void recordRebuild(String prefix, String outcome) {
+        counter("cache.rebuilds", prefix, "outcome", outcome).increment();
+    }
+
+    public void recordRebuildTime(String prefix, long nanos) {
+        timer("cache.rebuild.duration", prefix).record(nanos, TimeUnit.NANOSECONDS);
+    }
+
+    public void recordDbFallbackTime(String prefix, long nanos) {
+        timer("cache.db.fallback", prefix).record(nanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * 注册重建线程池的状态
+     */
+    public void bindRebuildExecutor(CacheRebuildExecutor executor) {
+        this.rebuildExecutor = executor;
+        Gauge.builder("cache.rebuild.queue.depth", executor, CacheRebuildExecutor::getQueueDepth)
+                .register(meterRegistry);
+        Gauge.builder("cache.rebuild.active", executor, CacheRebuildExecutor::getActiveCount)
+                .register(meterRegistry);
+    }
+
+    private Counter counter(String name, String prefix, String tag, String value) {
+        prefixes.add(prefix);
+        return counters.computeIfAbsent(name + '|' + prefix + '|' + value, k -> Counter.builder(name)
+                .tag("prefix", prefix)
+                .tag(tag, value)
+                .register(meterRegistry));
+    }
+
+    private Timer timer(String name, String prefix) {
+        prefixes.add(prefix);
+        return timers.computeIfAbsent(name + '|' + prefix, k -> Timer.builder(name)
+                .tag("prefix", prefix)
+                .publishPercentiles(0.5, 0.95, 0.99)
+                .publishPercentileHistogram()
+                .register(meterRegistry));
+    }
+
+    /**
+     * 按前缀汇总的统计数据
+     */
+    public Map<String, Object> stats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        for (String prefix : new TreeSet<>(prefixes)) {
+            Map<String, Object> requests = new LinkedHashMap<>();
+            long total = 0;
+            long hits = 0;
+            for (String result : RESULTS) {
+                long count = count("cache.requests", prefix, result);
+                requests.put(result, count);
+                total += count;
+                if (LOCAL_HIT.equals(result) || HIT.equals(result) || NULL_HIT.equals(result) || STALE.equals(result)) {
+                    hits += count;
+                }
+            }
+            Map<String, Object> rebuilds = new LinkedHashMap<>();
+            for (String outcome : REBUILDS) {
+                rebuilds.put(outcome, count("cache.rebuilds", prefix, outcome));
+            }
+
+            Map<String, Object> prefixStats = new LinkedHashMap<>();
+            prefixStats.put("requests", requests);
+            prefixStats.put("hitRatio", total == 0 ? 0 : (double) hits / total);
+            prefixStats.put("rebuilds", rebuilds);
+            prefixStats.put("rebuildTime", timerStats("cache.rebuild.duration", prefix));
+            prefixStats.put("dbFallbackTime", timerStats("cache.db.fallback", prefix));
+            stats.put(prefix, prefixStats);
+        }
+        return stats;
+    }
+
+    /**
+     * 重建线程池的状态，重建次数和耗时见 stats() 的 rebuilds、rebuildTime
+     */
+    public Map<String, Object> rebuildExecutorStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        CacheRebuildExecutor executor = rebuildExecutor;
+        if (executor != null) {
+            stats.put("queueDepth", executor.getQueueDepth());
+            stats.put("active", executor.getActiveCount());
+        }
+        return stats;
+    }
+
+    private long count(String name, String prefix, String value) {
+        Counter counter = counters.get(name + '|' + prefix + '|' + value);
+        return counter == null ? 0 : (long) counter.count();
+    }
+
+    private Map<String, Object> timerStats(String name, String prefix) {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        Timer timer = timers.get(name + '|' + prefix);
+        if (timer == null) {
+            return stats;
+        }
+        stats.put("count", timer.count());
+        stats.put("meanMillis", timer.mean(TimeUnit.MILLISECONDS));
+        stats.put("maxMillis", timer.max(TimeUnit.MILLISECONDS));
+        for (ValueAtPercentile percentile : timer.takeSnapshot().percentileValues()) {
+            stats.put("p" + Math.round(percentile.percentile() * 100) + "Millis", percentile.value(TimeUnit.MILLISECONDS));
+        }
+        return stats;
+    }
+}
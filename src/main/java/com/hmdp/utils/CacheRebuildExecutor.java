@@ -0,0 +1,134 @@
+package com.hmdp.utils;
+
+import cn.hutool.core.thread.NamedThreadFactory;
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 缓存重建线程池
+ * 有界队列，同一个key同时只会有一个重建任务，越热的key越先执行，队列满时拒绝并回调释放锁
+ * 重建次数和耗时由调用方通过 CacheMetrics 记录，这里只提供队列深度和活跃线程数
+ */
+@Slf4j
+public class CacheRebuildExecutor {
+
+    private final int capacity;
+    private final ThreadPoolExecutor executor;
+
+    /**
+     * 已占用的key，从 reserve 到任务结束
+     */
+    private final Set<String> reservedKeys = ConcurrentHashMap.newKeySet();
+    private final AtomicInteger queued = new AtomicInteger();
+    private final AtomicLong sequence = new AtomicLong();
+
+    public CacheRebuildExecutor(int threads, int capacity) {
+        this.capacity = capacity;
+        // PriorityBlockingQueue 无界，由 queued 计数限制容量
+        this.executor = new ThreadPoolExecutor(
+                threads, threads, 0L, TimeUnit.MILLISECONDS,
+                new PriorityBlockingQueue<>(),
+                new NamedThreadFactory("cache-rebuild-", true)
+        );
+    }
+
+    /**
+     * 占用key，返回 false 代表该key已有重建在进行
+     */
+    public boolean reserve(String key) {
+        return reservedKeys.add(key);
+    }
+
+    /**
+     * 放弃重建，释放占用的key
+     */
+    public void cancel(String key) {
+        reservedKeys.remove(key);
+    }
+
+    /**
+     * 提交重建任务，key 必须已 reserve
+     * @param key
+     * @param priority 越大越先执行
+     * @param task 重建逻辑
+     * @param onReject 被拒绝时调用，用于释放分布式锁
+     * @return 是否提交成功
+     */
+    public boolean submit(String key, long priority, Runnable task, Runnable onReject) {
+        if (queued.incrementAndGet() > capacity) {
+            queued.decrementAndGet();
+            reject(key, onReject);
+            return false;
+        }
+        try {
+            executor.execute(new RebuildTask(key, priority, sequence.incrementAndGet(), task));
+            return true;
+        } catch (RejectedExecutionException e) {
+            queued.decrementAndGet();
+            reject(key, onReject);
+            return false;
+        }
+    }
+
+    private void reject(String key, Runnable onReject) {
+        log.warn("cache rebuild rejected, queue full: {}", key);
+        try {
+            onReject.run();
+        } finally {
+            reservedKeys.remove(key);
+        }
+    }
+
+    public int getQueueDepth() {
+        return queued.get();
+    }
+
+    public int getActiveCount() {
+        return executor.getActiveCount();
+    }
+
+    public void shutdown() {
+        executor.shutdown();
+    }
+
+    private class RebuildTask implements Runnable, Comparable<RebuildTask> {
+        private final String key;
+        private final long priority;
+        private final long seq;
+        private final Runnable task;
+
+        RebuildTask(String key, long priority, long seq, Runnable task) {
+            this.key = key;
+            this.priority = priority;
+            this.seq = seq;
+            this.task = task;
+        }
+
+        @Override
+        public void run() {
+            queued.decrementAndGet();
+            try {
+                task.run();
+            } catch (Exception e) {
+                log.error("cache rebuild failed: {}", key, e);
+            } finally {
+                reservedKeys.remove(key);
+            }
+        }
+
+        // hotter first, then FIFO
+        @Override
+        public int compareTo(RebuildTask o) {
+            int c = Long.compare(o.priority, priority);
+            return c != 0 ? c : Long.compare(seq, o.seq);
+        }
+    }
+}
@@ -0,0 +1,169 @@
+package com.hmdp.utils;
+
+import cn.hutool.core.thread.NamedThreadFactory;
+import com.hmdp.dto.CacheWarmUpDTO;
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+
+/**
+ * 逻辑过期缓存预热：按id区间分块读取，多线程并行，每块通过 pipeline 一次写入
+ */
+@Slf4j
+public class CacheWarmer {
+
+    private final String name;
+    private final CacheClient cacheClient;
+    private final int parallelism;
+    private final long chunkSize;
+
+    private final ExecutorService coordinator;
+    private final ExecutorService workers;
+
+    private final AtomicBoolean running = new AtomicBoolean();
+    private final AtomicLong warmed = new AtomicLong();
+    private final AtomicInteger finishedChunks = new AtomicInteger();
+    private final AtomicInteger failedChunks = new AtomicInteger();
+    private volatile long total;
+    private volatile long beginMillis;
+    private volatile long endMillis;
+
+    public CacheWarmer(String name, CacheClient cacheClient, int parallelism, long chunkSize) {
+        this.name = name;
+        this.cacheClient = cacheClient;
+        this.parallelism = parallelism;
+        this.chunkSize = chunkSize;
+        this.coordinator = Executors.newSingleThreadExecutor(
+                new NamedThreadFactory("warm-up-" + name.toLowerCase() + "-coordinator-", true));
+        this.workers = Executors.newFixedThreadPool(parallelism,
+                new NamedThreadFactory("warm-up-" + name.toLowerCase() + "-", true));
+    }
+
+    /**
+     * 停止预热，未开始的分块不再执行
+     */
+    public void shutdown() {
+        coordinator.shutdownNow();
+        workers.shutdownNow();
+    }
+
+    /**
+     * 异步开始预热，已在运行时返回 false
+     * @param minId 最小id
+     * @param maxId 最大id
+     * @param total 总条数，用于展示进度
+     * @param rangeLoader 查询 [from, to) 区间内的数据
+     * @param idGetter 获取数据的id
+     * @param keyPrefix
+     * @param time
+     * @param unit
+     */
+    public <T> boolean start(
+            long minId, long maxId, long total,
+            BiFunction<Long, Long, List<T>> rangeLoader, Function<T, Object> idGetter,
+            String keyPrefix, Integer time, TimeUnit unit
+    ) {
+        if (!running.compareAndSet(false, true)) {
+            return false;
+        }
+        this.total = total;
+        this.warmed.set(0);
+        this.finishedChunks.set(0);
+        this.failedChunks.set(0);
+        this.beginMillis = System.currentTimeMillis();
+        this.endMillis = 0;
+
+        coordinator.execute(() -> {
+            try {
+                run(minId, maxId, rangeLoader, idGetter, keyPrefix, time, unit);
+            } finally {
+                endMillis = System.currentTimeMillis();
+                running.set(false);
+                log.info("{} cache warm up finished: {}", name, progress());
+            }
+        });
+        return true;
+    }
+
+    private <T> void run(
+            long minId, long maxId,
+            BiFunction<Long, Long, List<T>> rangeLoader, Function<T, Object> idGetter,
+            String keyPrefix, Integer time, TimeUnit unit
+    ) {
+        // at most 2 chunks queued per worker
+        Semaphore permits = new Semaphore(parallelism * 2);
+        List<Future<?>> futures = new ArrayList<>();
+        for (long from = minId; from <= maxId; from += chunkSize) {
+            long lo = from;
+            long hi = Math.min(from + chunkSize, maxId + 1);
+            try {
+                permits.acquire();
+            } catch (InterruptedException e) {
+                // shutting down
+                log.warn("{} cache warm up stopped at {}", name, lo);
+                return;
+            }
+            futures.add(workers.submit(() -> {
+                try {
+                    long begin = System.nanoTime();
+                    List<T> list = rangeLoader.apply(lo, hi);
+                    // per item load cost, the cache client keeps at least its default
+                    long delta = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - begin) / Math.max(1, list.size());
+                    Map<String, Object> values = new LinkedHashMap<>(list.size());
+                    for (T t : list) {
+                        values.put(keyPrefix + idGetter.apply(t), t);
+                    }
+                    cacheClient.setLogicalExpireBatch(values, time, unit, delta);
+                    long done = warmed.addAndGet(list.size());
+                    if (finishedChunks.incrementAndGet() % 100 == 0) {
+                        log.info("{} cache warm up progress: {}/{}", name, done, total);
+                    }
+                } catch (Exception e) {
+                    failedChunks.incrementAndGet();
+                    log.error("{} cache warm up failed: [{}, {})", name, lo, hi, e);
+                } finally {
+                    permits.release();
+                }
+            }));
+        }
+        for (Future<?> future : futures) {
+            try {
+                future.get();
+            } catch (Exception e) {
+                log.error("{} cache warm up interrupted", name, e);
+                return;
+            }
+        }
+    }
+
+    public boolean isRunning() {
+        return running.get();
+    }
+
+    public CacheWarmUpDTO progress() {
+        long end = endMillis > 0 ? endMillis : System.currentTimeMillis();
+        long elapsed = beginMillis > 0 ? end - beginMillis : 0;
+        CacheWarmUpDTO dto = new CacheWarmUpDTO();
+        dto.setName(name);
+        dto.setRunning(running.get());
+        dto.setTotal(total);
+        dto.setWarmed(warmed.get());
+        dto.setFailedChunks(failedChunks.get());
+        dto.setElapsedMillis(elapsed);
+        dto.setThroughput(elapsed > 0 ? warmed.get() * 1000 / elapsed : 0);
+        return dto;
+    }
+}
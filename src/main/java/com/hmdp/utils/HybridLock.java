@@ -0,0 +1,90 @@
+package com.hmdp.utils;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+import static com.hmdp.utils.RedisConstants.LOCK_LOCAL_STRIPES;
+
+/**
+ * 本地锁 + 分布式锁：先抢本地分段锁，只有本节点的胜出者才去 redis 竞争
+ * 同一节点上对同一个锁的竞争不会访问 redis
+ * 分段锁按名称 hash 取固定数组中的 ReentrantLock，不使用 String.intern()，不同名称可能落在同一段
+ */
+public class HybridLock implements ILock {
+
+    private static final ReentrantLock[] STRIPES = new ReentrantLock[LOCK_LOCAL_STRIPES];
+    static {
+        for (int i = 0; i < STRIPES.length; i++) {
+            STRIPES[i] = new ReentrantLock();
+        }
+    }
+
+    private final ReentrantLock local;
+    private final ILock remote;
+
+    /**
+     * @param name 锁名称，与分布式锁的名称一致
+     * @param remote 分布式锁
+     */
+    public HybridLock(String name, ILock remote) {
+        this.local = stripe(name);
+        this.remote = remote;
+    }
+
+    private static ReentrantLock stripe(String name) {
+        int h = name.hashCode();
+        return STRIPES[(h ^ (h >>> 16)) & (STRIPES.length - 1)];
+    }
+
+    @Override
+    public boolean tryLock() {
+        if (!local.tryLock()) {
+            return false;
+        }
+        return afterRemote(remote.tryLock());
+    }
+
+    @Override
+    public boolean tryLock(long timeoutSec) {
+        if (!local.tryLock()) {
+            return false;
+        }
+        return afterRemote(remote.tryLock(timeoutSec));
+    }
+
+    /**
+     * 本地等待和 redis 等待共用 waitTime
+     */
+    @Override
+    public boolean tryLock(long waitTime, long leaseTime, TimeUnit unit) {
+        long deadline = System.nanoTime() + unit.toNanos(waitTime);
+        try {
+            if (!local.tryLock(waitTime, unit)) {
+                return false;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+        long remaining = Math.max(0, TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime()));
+        long lease = leaseTime < 0 ? -1 : unit.toMillis(leaseTime);
+        return afterRemote(remote.tryLock(remaining, lease, TimeUnit.MILLISECONDS));
+    }
+
+    // redis 没抢到时放掉本地锁
+    private boolean afterRemote(boolean acquired) {
+        if (!acquired) {
+            local.unlock();
+        }
+        return acquired;
+    }
+
+    @Override
+    public void unlock() {
+        try {
+            remote.unlock();
+        } finally {
+            local.unlock();
+        }
+    }
+}
@@ -1,6 +1,17 @@
 package com.hmdp.utils;
 
+import java.util.concurrent.TimeUnit;
+
 public interface ILock {
+    /**
+     * 尝试获取锁，不指定超时时间
+     * 支持看门狗的实现在持有期间自动续期，其他实现使用默认超时时间
+     * @return true代表获取锁成功；false代表获取锁失败
+     */
+    default boolean tryLock() {
+        return tryLock(RedisConstants.LOCK_DEFAULT_TTL);
+    }
+
     /**
      * 尝试获取锁
      * @param timeoutSec 锁持有的超时时间，过期后自动释放
@@ -8,6 +19,31 @@ public interface ILock {
      */
     boolean tryLock(long timeoutSec);
 
+    /**
+     * 尝试获取锁，获取不到时最多等待 waitTime
+     * 默认实现按固定间隔重试，支持释放通知的实现在锁释放时被唤醒
+     * @param waitTime 最长等待时间
+     * @param leaseTime 锁持有的超时时间，小于0时同 tryLock()
+     * @param unit 时间单位
+     * @return true代表获取锁成功；false代表超时或被中断
+     */
+    default boolean tryLock(long waitTime, long leaseTime, TimeUnit unit) {
+        long deadline = System.nanoTime() + unit.toNanos(waitTime);
+        while (!(leaseTime < 0 ? tryLock() : tryLock(Math.max(1, unit.toSeconds(leaseTime))))) {
+            long remaining = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+            if (remaining <= 0) {
+                return false;
+            }
+            try {
+                Thread.sleep(Math.min(remaining, RedisConstants.LOCK_RETRY_INTERVAL));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return false;
+            }
+        }
+        return true;
+    }
+
     /**
      * 释放锁
      */
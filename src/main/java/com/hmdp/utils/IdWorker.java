@@ -0,0 +1,13 @@
+package com.hmdp.utils;
+
+/**
+ * 全局唯一id：高32位为时间戳（秒），不同实现生成的id按时间大致有序
+ */
+public interface IdWorker {
+    /**
+     * 生成id
+     * @param keyPrefix 业务前缀
+     * @return 全局唯一id
+     */
+    long nextId(String keyPrefix);
+}
@@ -0,0 +1,34 @@
+package com.hmdp.utils;
+
+import cn.hutool.json.JSONUtil;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+
+/**
+ * hutool JSON 编解码，与原有缓存格式兼容
+ * 逻辑过期数据写成原 {"data":..,"expireTime":..} 格式，未升级的节点也能读取
+ */
+public class JsonCacheCodec implements CacheCodec {
+
+    @Override
+    public byte[] encode(Object value) {
+        return JSONUtil.toJsonStr(value).getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Override
+    public <R> R decode(byte[] bytes, int offset, int length, Class<R> type) {
+        return JSONUtil.toBean(new String(bytes, offset, length, StandardCharsets.UTF_8), type);
+    }
+
+    @Override
+    public byte[] encodeLogicalExpire(long expireMillis, int deltaMillis, Object value) {
+        RedisData redisData = new RedisData();
+        redisData.setExpireTime(LocalDateTime.ofInstant(Instant.ofEpochMilli(expireMillis), ZoneId.systemDefault()));
+        redisData.setDelta(deltaMillis);
+        redisData.setData(value);
+        return encode(redisData);
+    }
+}
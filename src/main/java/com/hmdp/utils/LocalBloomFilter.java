@@ -0,0 +1,41 @@
+package com.hmdp.utils;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * 进程内布隆过滤器，位数组保存在堆内存
+ */
+public class LocalBloomFilter extends BloomFilter {
+
+    private final AtomicLongArray words;
+
+    public LocalBloomFilter(long expectedInsertions, double fpp) {
+        super(expectedInsertions, fpp);
+        this.words = new AtomicLongArray((int) ((numBits + 63) >>> 6));
+    }
+
+    @Override
+    protected boolean getBits(long[] positions) {
+        for (long pos : positions) {
+            if ((words.get((int) (pos >>> 6)) & (1L << pos)) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    protected void setBits(long[] positions) {
+        for (long pos : positions) {
+            int index = (int) (pos >>> 6);
+            long mask = 1L << pos;
+            long word;
+            do {
+                word = words.get(index);
+                if ((word & mask) != 0) {
+                    break;
+                }
+            } while (!words.compareAndSet(index, word, word | mask));
+        }
+    }
+}
@@ -0,0 +1,148 @@
+package com.hmdp.utils;
+
+import cn.hutool.core.bean.BeanUtil;
+import cn.hutool.core.bean.copier.CopyOptions;
+import cn.hutool.core.lang.UUID;
+import cn.hutool.core.util.StrUtil;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.hmdp.dto.UserDTO;
+import org.springframework.data.redis.connection.Message;
+import org.springframework.data.redis.connection.MessageListener;
+import org.springframework.data.redis.connection.StringRedisConnection;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.Resource;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static com.hmdp.utils.RedisConstants.*;
+
+/**
+ * 登录态本地缓存：token -> 用户，命中时不访问 redis
+ * 本地记录 redis 中 token 的过期时间，剩余有效期低于一定比例时才续期
+ * 登出时删除 redis 中的 token 并广播，各节点移除本地缓存；本地缓存有效期很短，漏收广播时最多延迟该时间
+ */
+public class LoginSessionCache implements SessionStore, MessageListener {
+
+    private static final long TTL_MILLIS = TimeUnit.MINUTES.toMillis(LOGIN_USER_TTL);
+    private static final long REFRESH_BELOW_MILLIS = (long) (TTL_MILLIS * LOGIN_USER_REFRESH_RATIO);
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+    @Resource
+    private RedisMessageListenerContainer redisMessageListenerContainer;
+
+    private static class Session {
+        // 多个请求共用，不要修改
+        final UserDTO user;
+        // redis 中 token 的过期时间（本地估计）
+        volatile long expireAt;
+
+        Session(UserDTO user, long expireAt) {
+            this.user = user;
+            this.expireAt = expireAt;
+        }
+    }
+
+    private final Cache<String, Session> sessions = Caffeine.newBuilder()
+            .maximumSize(LOGIN_USER_LOCAL_MAX_SIZE)
+            .expireAfterWrite(LOGIN_USER_LOCAL_TTL, TimeUnit.SECONDS)
+            .build();
+
+    @PostConstruct
+    private void init() {
+        redisMessageListenerContainer.addMessageListener(this, new ChannelTopic(LOGIN_USER_REVOKE_CHANNEL));
+    }
+
+    /**
+     * 随机 token，用户信息保存在 redis hash
+     */
+    @Override
+    public String create(UserDTO user) {
+        String token = UUID.randomUUID().toString(true);
+        Map<String, Object> userMap = BeanUtil.beanToMap(user, new HashMap<>(),
+                CopyOptions.create()
+                        .setIgnoreNullValue(true)
+                        .setFieldValueEditor((fieldName, fieldValue) -> fieldValue.toString())
+        );
+        stringRedisTemplate.opsForHash().putAll(LOGIN_USER_TOKEN + token, userMap);
+        stringRedisTemplate.expire(LOGIN_USER_TOKEN + token, LOGIN_USER_TTL, TimeUnit.MINUTES);
+        return token;
+    }
+
+    @Override
+    public UserDTO get(String token) {
+        if (StrUtil.isBlank(token)) {
+            return null;
+        }
+        Session session = sessions.getIfPresent(token);
+        if (session != null && session.expireAt <= System.currentTimeMillis()) {
+            // expired in redis
+            sessions.invalidate(token);
+            session = null;
+        }
+        if (session == null) {
+            session = load(token);
+            if (session == null) {
+                return null;
+            }
+            sessions.put(token, session);
+        }
+        refresh(token, session);
+        return session.user;
+    }
+
+    // 一次往返读取用户信息和剩余有效期
+    private Session load(String token) {
+        String key = LOGIN_USER_TOKEN + token;
+        List<Object> results = stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            StringRedisConnection conn = (StringRedisConnection) connection;
+            conn.hGetAll(key);
+            conn.pTtl(key);
+            return null;
+        });
+        @SuppressWarnings("unchecked")
+        Map<String, String> userMap = (Map<String, String>) results.get(0);
+        if (userMap == null || userMap.isEmpty()) {
+            return null;
+        }
+        Long ttl = (Long) results.get(1);
+        UserDTO userDTO = BeanUtil.fillBeanWithMap(userMap, new UserDTO(), false);
+        return new Session(userDTO, System.currentTimeMillis() + (ttl == null || ttl < 0 ? 0 : ttl));
+    }
+
+    private void refresh(String token, Session session) {
+        long now = System.currentTimeMillis();
+        if (session.expireAt - now >= REFRESH_BELOW_MILLIS) {
+            return;
+        }
+        session.expireAt = now + TTL_MILLIS;
+        stringRedisTemplate.expire(LOGIN_USER_TOKEN + token, LOGIN_USER_TTL, TimeUnit.MINUTES);
+    }
+
+    /**
+     * 删除 token 并通知所有节点
+     */
+    @Override
+    public void revoke(String token) {
+        if (StrUtil.isBlank(token)) {
+            return;
+        }
+        stringRedisTemplate.delete(LOGIN_USER_TOKEN + token);
+        sessions.invalidate(token);
+        stringRedisTemplate.convertAndSend(LOGIN_USER_REVOKE_CHANNEL, token);
+    }
+
+    @Override
+    public void onMessage(Message message, byte[] pattern) {
+        sessions.invalidate(new String(message.getBody(), StandardCharsets.UTF_8));
+    }
+}
@@ -0,0 +1,92 @@
+package com.hmdp.utils;
+
+import cn.hutool.core.collection.CollUtil;
+import org.springframework.data.redis.connection.RedisConnection;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * 基于 Redis bitmap 的布隆过滤器，所有节点共享同一个位数组
+ * 种子写完后设置标记key，标记或位数组不存在时（redis 被清空、无持久化的故障转移、被淘汰）视为可能存在，并通知重新写入
+ */
+public class RedisBloomFilter extends BloomFilter {
+
+    private static final int PUT_BATCH_SIZE = 1000;
+
+    private final StringRedisTemplate stringRedisTemplate;
+    private final byte[] key;
+    private final byte[] seededKey;
+    private final Runnable onUnseeded;
+
+    /**
+     * @param seededKey 种子写完后设置的标记key
+     * @param onUnseeded 发现标记或位数组不存在时回调，用于重新写入种子，可能被并发调用
+     */
+    public RedisBloomFilter(StringRedisTemplate stringRedisTemplate, String key, String seededKey, Runnable onUnseeded,
+                            long expectedInsertions, double fpp) {
+        super(expectedInsertions, fpp);
+        this.stringRedisTemplate = stringRedisTemplate;
+        this.key = key.getBytes(StandardCharsets.UTF_8);
+        this.seededKey = seededKey.getBytes(StandardCharsets.UTF_8);
+        this.onUnseeded = onUnseeded;
+    }
+
+    @Override
+    public boolean isShared() {
+        return true;
+    }
+
+    @Override
+    public void putAll(Collection<String> values) {
+        // pipeline in batches, avoid buffering millions of replies at once
+        for (List<String> batch : CollUtil.split(values, PUT_BATCH_SIZE)) {
+            stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+                for (String value : batch) {
+                    setBits(connection, positions(value));
+                }
+                return null;
+            });
+        }
+    }
+
+    @Override
+    protected boolean getBits(long[] positions) {
+        List<Object> bits = stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            connection.exists(seededKey);
+            connection.exists(key);
+            for (long pos : positions) {
+                connection.getBit(key, pos);
+            }
+            return null;
+        });
+        // all-zero bits of a missing bitmap would reject every id
+        if (!Boolean.TRUE.equals(bits.get(0)) || !Boolean.TRUE.equals(bits.get(1))) {
+            onUnseeded.run();
+            return true;
+        }
+        for (Object bit : bits.subList(2, bits.size())) {
+            if (!Boolean.TRUE.equals(bit)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    protected void setBits(long[] positions) {
+        stringRedisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            setBits(connection, positions);
+            return null;
+        });
+    }
+
+    private void setBits(RedisConnection connection, long[] positions) {
+        for (long pos : positions) {
+            connection.setBit(key, pos, true);
+        }
+    }
+}
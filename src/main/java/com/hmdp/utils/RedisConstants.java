@@ -6,6 +6,16 @@ public class RedisConstants {
     public static final String LOGIN_USER_TOKEN = "user:token:";
     // todo 修改过期时间
     public static final Integer LOGIN_USER_TTL = 999999;
+    // 登录态本地缓存（秒），剩余有效期低于该比例时才续期，登出广播频道
+    public static final Long LOGIN_USER_LOCAL_TTL = 60L;
+    public static final Long LOGIN_USER_LOCAL_MAX_SIZE = 100000L;
+    public static final Double LOGIN_USER_REFRESH_RATIO = 0.8;
+    public static final String LOGIN_USER_REVOKE_CHANNEL = "user:token:revoke";
+    // 签名 token 的吊销集合（zset，score 为 token 过期时间），本地布隆过滤器容量、误判率与全量重载间隔（秒）
+    public static final String LOGIN_TOKEN_REVOKED_KEY = "user:token:revoked";
+    public static final Long LOGIN_TOKEN_REVOKED_EXPECTED = 100000L;
+    public static final Double LOGIN_TOKEN_REVOKED_FPP = 0.001;
+    public static final Long LOGIN_TOKEN_REVOKED_RELOAD = 60L;
 
     public static final String CACHE_SHOP_KEY = "cache:shop:";
     public static final String CACHE_SHOP_LIST = "cache:shop:list";
@@ -13,6 +23,97 @@ public class RedisConstants {
 
     public static final Integer CACHE_NULL_TTL = 2;
 
+    // TTL随机增加的比例，避免同一批写入的key同时过期
+    public static final Double CACHE_TTL_JITTER_RATIO = 0.1;
+    // 概率提前过期(XFetch)的系数，越大越早刷新
+    public static final Double CACHE_XFETCH_BETA = 1.0;
+
+    // 本地一级缓存，TTL单位为秒
+    public static final String CACHE_INVALIDATE_CHANNEL = "cache:invalidate";
+    public static final Integer CACHE_LOCAL_MAX_SIZE = 10000;
+    public static final Integer CACHE_LOCAL_TTL = 30;
+
+    // 布隆过滤器，防止缓存穿透，重建间隔单位为秒
+    public static final String CACHE_BLOOM_CHANNEL = "cache:bloom";
+    public static final String BLOOM_SHOP_KEY = "bloom:shop";
+    public static final String BLOOM_SHOP_SEEDED_KEY = "bloom:shop:seeded";
+    public static final String BLOOM_SHOP_SEEDING_KEY = "bloom:shop:seeding";
+    public static final Long BLOOM_SHOP_REBUILD_INTERVAL = 600L;
+    public static final Long BLOOM_SHOP_EXPECTED = 1000000L;
+    public static final Double BLOOM_SHOP_FPP = 0.01;
+
+    // 缓存重建线程池，热度统计窗口单位为秒
+    public static final Integer CACHE_REBUILD_THREADS = 10;
+    public static final Integer CACHE_REBUILD_QUEUE_CAPACITY = 1000;
+    public static final Integer CACHE_HITS_WINDOW = 60;
+
+    // 异步缓存查库线程池
+    public static final Integer CACHE_ASYNC_DB_THREADS = 16;
+    public static final Integer CACHE_ASYNC_DB_QUEUE_CAPACITY = 1000;
+
+    // 缓存预热
+    public static final Integer CACHE_WARM_UP_PARALLELISM = 8;
+    public static final Long CACHE_WARM_UP_CHUNK = 1000L;
+
     public static final String LOCK_SHOP = "lock:shop:";
     public static final Integer LOCK_SHOP_TTL = 1;
+
+    // 分布式锁：未指定租期时的默认租期（秒），可重入锁看门狗的租期与续期间隔（毫秒）
+    public static final Long LOCK_DEFAULT_TTL = 30L;
+    public static final Long LOCK_WATCHDOG_LEASE = 30000L;
+    public static final Long LOCK_WATCHDOG_INTERVAL = 10000L;
+    // 锁释放通知频道前缀，不支持通知的锁等待时的重试间隔（毫秒）
+    public static final String LOCK_UNLOCK_CHANNEL = "lock:unlock:";
+    public static final Long LOCK_RETRY_INTERVAL = 50L;
+    // 本地分段锁的段数，必须是2的幂
+    public static final Integer LOCK_LOCAL_STRIPES = 256;
+
+    public static final String LOCK_ORDER = "order:";
+    public static final Long LOCK_ORDER_TTL = 10L;
+
+    public static final String SECKILL_STOCK_KEY = "seckill:stock:";
+    public static final String SECKILL_ORDER_KEY = "seckill:order:";
+    // 分片库存：分片数存在 seckill:shards:<id>，第i个分片的库存、用户集合、订单消息队列为
+    // seckill:{s<i>}:stock:<id>、seckill:{s<i>}:order:<id>、seckill:{s<i>}:stream，hash tag 相同，Cluster 下在同一个 slot
+    public static final String SECKILL_SHARDS_KEY = "seckill:shards:";
+    public static final String SECKILL_SHARD_TAG = "seckill:{s";
+    public static final Integer SECKILL_MAX_SHARDS = 16;
+    public static final String LOCK_SECKILL_RECONCILE = "seckill:reconcile:";
+    public static final Long LOCK_SECKILL_RECONCILE_WAIT = 5L;
+
+    // 秒杀准入：本地令牌桶容量为剩余库存*比例，全局滑动窗口上限为库存*比例，窗口单位为毫秒
+    public static final String SECKILL_LIMIT_KEY = "seckill:limit:";
+    public static final Long SECKILL_LIMIT_WINDOW = 1000L;
+    public static final Double SECKILL_ADMIT_LOCAL_RATIO = 2.0;
+    public static final Double SECKILL_ADMIT_GLOBAL_RATIO = 4.0;
+    public static final Long SECKILL_ADMIT_MAX = 100000L;
+
+    // 秒杀券元数据与售罄标记的节点间广播
+    public static final String SECKILL_VOUCHER_CHANNEL = "seckill:voucher";
+    public static final String SECKILL_SOLD_OUT_CHANNEL = "seckill:soldout";
+    public static final String SECKILL_SOLD_OUT_CLEAR_CHANNEL = "seckill:soldout:clear";
+
+    // 订单消息队列，时间单位为秒
+    public static final String SECKILL_STREAM_KEY = "stream.orders";
+    public static final String SECKILL_STREAM_GROUP = "g1";
+    public static final Long SECKILL_STREAM_BLOCK = 2L;
+    public static final Long SECKILL_PENDING_IDLE = 60L;
+    public static final Long SECKILL_PENDING_INTERVAL = 30L;
+    public static final Long SECKILL_PENDING_BATCH = 100L;
+    // 投递次数达到上限或数据库拒绝的订单消息转入死信队列
+    public static final String SECKILL_DEAD_LETTER_KEY = "stream.orders.dead";
+    public static final Long SECKILL_MAX_DELIVERIES = 5L;
+
+    // 全局id：每天一个计数器，号段模式下每次 INCRBY 预留的步长范围，号段目标使用时长（毫秒），用到该比例时预取下一段
+    public static final String ID_KEY = "icr:";
+    public static final Long ID_SEGMENT_MIN_STEP = 100L;
+    public static final Long ID_SEGMENT_MAX_STEP = 100000L;
+    public static final Long ID_SEGMENT_DURATION = 1000L;
+    public static final Double ID_SEGMENT_PREFETCH_RATIO = 0.8;
+    // snowflake 机器id租约与心跳（毫秒），允许的最大时钟回拨（秒）
+    public static final String ID_WORKER_KEY = "id:worker:";
+    public static final String ID_WORKER_TIME_KEY = "id:worker-time";
+    public static final Long ID_WORKER_LEASE = 30000L;
+    public static final Long ID_WORKER_HEARTBEAT = 10000L;
+    public static final Long ID_CLOCK_BACKWARD_MAX = 5L;
 }
@@ -2,10 +2,44 @@ package com.hmdp.utils;
 
 import lombok.Data;
 
+import java.nio.ByteBuffer;
 import java.time.LocalDateTime;
 
+/**
+ * 逻辑过期数据
+ * 二进制格式：8字节过期时间(epoch millis) + 4字节重建耗时(millis) + 编码后的data，无需解码data即可判断是否过期
+ */
 @Data
 public class RedisData {
     public LocalDateTime expireTime;
     public Object data;
+    /**
+     * 上次重建耗时，毫秒，用于概率提前过期
+     */
+    public long delta;
+
+    public static final int HEADER_LENGTH = 12;
+
+    public static byte[] wrap(long expireMillis, int deltaMillis, byte[] payload) {
+        return ByteBuffer.allocate(HEADER_LENGTH + payload.length)
+                .putLong(expireMillis)
+                .putInt(deltaMillis)
+                .put(payload)
+                .array();
+    }
+
+    public static long expireMillis(byte[] bytes) {
+        return ByteBuffer.wrap(bytes, 0, 8).getLong();
+    }
+
+    public static int deltaMillis(byte[] bytes) {
+        return ByteBuffer.wrap(bytes, 8, 4).getInt();
+    }
+
+    /**
+     * 旧格式为 hutool JSON，以 '{' 开头；新格式首字节为过期时间最高位，恒为0
+     */
+    public static boolean isLegacyJson(byte[] bytes) {
+        return bytes.length > 0 && bytes[0] == '{';
+    }
 }
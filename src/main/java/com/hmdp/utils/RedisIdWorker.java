@@ -1,35 +1,192 @@
 package com.hmdp.utils;
 
+import cn.hutool.core.thread.NamedThreadFactory;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.stereotype.Component;
 
+import javax.annotation.PreDestroy;
 import javax.annotation.Resource;
 import java.time.LocalDateTime;
 import java.time.ZoneOffset;
 import java.time.format.DateTimeFormatter;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
+import static com.hmdp.utils.RedisConstants.*;
+
+/**
+ * 全局id：时间戳（秒） + 当天的序列号
+ * 号段模式下每个节点用 INCRBY 一次预留一段序列号，在本地用 AtomicLong 分配，用到一定比例时异步预取下一段
+ * 步长按上一段的实际使用时长调整，使 redis 每秒只访问几次
+ */
+@Slf4j
 @Component
-public class RedisIdWorker {
+public class RedisIdWorker implements IdWorker {
 
     // (2000, 1, 1, 1, 1, 1)
     private static final long BASE_TIMESTAMP = 946688461L;
 
-    private static final int COUNT_BITS = 32;
+    static final int COUNT_BITS = 32;
+
+    private static final DateTimeFormatter DATE_FORMATTER = DateTimeFormatter.ofPattern("yyyy:MM:dd");
 
     @Resource
     StringRedisTemplate stringRedisTemplate;
 
+    @Value("${hmdp.id.mode:segment}")
+    private String mode;
+
+    /**
+     * 业务前缀 -> 号段
+     */
+    private final Map<String, SegmentBuffer> buffers = new ConcurrentHashMap<>();
+
+    private final ExecutorService prefetcher =
+            Executors.newSingleThreadExecutor(new NamedThreadFactory("id-segment-", true));
+
+    @PreDestroy
+    private void destroy() {
+        prefetcher.shutdown();
+    }
 
+    @Override
     public long nextId(String keyPrefix) {
         // time stamp
         LocalDateTime now = LocalDateTime.now();
-        long nowSecond = now.toEpochSecond(ZoneOffset.UTC);
-        long timeStamp = nowSecond - BASE_TIMESTAMP;
+        long timeStamp = timestamp(now);
 
         // seq
-        String date = now.format(DateTimeFormatter.ofPattern("yyy:MM:dd"));
-        long count = stringRedisTemplate.opsForValue().increment("icr:" + keyPrefix + ":" + date);
+        String key = ID_KEY + keyPrefix + ":" + now.format(DATE_FORMATTER);
+        long count = "redis".equals(mode)
+                ? increment(key, 1)
+                : buffers.computeIfAbsent(keyPrefix, k -> new SegmentBuffer()).next(key);
 
         return timeStamp << COUNT_BITS | count;
     }
+
+    /**
+     * id 中的时间戳：本地时间按 UTC 换算的秒数减去起始时间，所有 IdWorker 共用，保证id按时间有序
+     */
+    static long timestamp(LocalDateTime now) {
+        return now.toEpochSecond(ZoneOffset.UTC) - BASE_TIMESTAMP;
+    }
+
+    static long currentTimestamp() {
+        return timestamp(LocalDateTime.now());
+    }
+
+    // 预留 step 个序列号，返回最后一个
+    private long increment(String key, long step) {
+        Long last = stringRedisTemplate.opsForValue().increment(key, step);
+        if (last == null) {
+            throw new IllegalStateException("increment " + key + " failed");
+        }
+        return last;
+    }
+
+    /**
+     * 一段序列号 [cursor, end]
+     */
+    private static final class Segment {
+        final String key;
+        final AtomicLong cursor;
+        final long end;
+        final long prefetchAt;
+        final long createdNanos = System.nanoTime();
+
+        Segment(String key, long last, long step) {
+            this.key = key;
+            this.cursor = new AtomicLong(last - step + 1);
+            this.end = last;
+            this.prefetchAt = last - step + 1 + (long) (step * ID_SEGMENT_PREFETCH_RATIO);
+        }
+    }
+
+    /**
+     * 当前号段 + 预取中的下一段，分配 id 只在号段用完或换天时加锁
+     */
+    private final class SegmentBuffer {
+        private volatile Segment current;
+        private CompletableFuture<Segment> next;
+        private long step = ID_SEGMENT_MIN_STEP;
+
+        long next(String key) {
+            while (true) {
+                Segment s = current;
+                if (s == null || s.key.compareTo(key) < 0) {
+                    // first call or new day
+                    reset(key);
+                    continue;
+                }
+                if (s.key.compareTo(key) > 0) {
+                    // 跨天时仍拿着前一天时间戳的请求，直接到 redis 取
+                    return increment(key, 1);
+                }
+                long v = s.cursor.getAndIncrement();
+                if (v == s.prefetchAt) {
+                    prefetch(s);
+                }
+                if (v <= s.end) {
+                    return v;
+                }
+                advance(s);
+            }
+        }
+
+        private synchronized void reset(String key) {
+            Segment s = current;
+            if (s != null && s.key.compareTo(key) >= 0) {
+                return;
+            }
+            next = null;
+            current = allocate(key);
+        }
+
+        private synchronized void prefetch(Segment s) {
+            if (current != s || next != null) {
+                return;
+            }
+            // 上一段用得太快就加大步长，太慢就减小
+            long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - s.createdNanos);
+            if (elapsed < ID_SEGMENT_DURATION / 2) {
+                step = Math.min(step * 2, ID_SEGMENT_MAX_STEP);
+            } else if (elapsed > ID_SEGMENT_DURATION * 2) {
+                step = Math.max(step / 2, ID_SEGMENT_MIN_STEP);
+            }
+            long size = step;
+            try {
+                next = CompletableFuture.supplyAsync(() -> new Segment(s.key, increment(s.key, size), size), prefetcher);
+            } catch (RejectedExecutionException e) {
+                // shutting down, the next segment is allocated on demand
+            }
+        }
+
+        private synchronized void advance(Segment exhausted) {
+            if (current != exhausted) {
+                return;
+            }
+            Segment n = null;
+            if (next != null) {
+                try {
+                    n = next.join();
+                } catch (Exception e) {
+                    log.error("prefetch id segment {} failed", exhausted.key, e);
+                }
+                next = null;
+            }
+            current = n != null && n.key.equals(exhausted.key) ? n : allocate(exhausted.key);
+        }
+
+        private Segment allocate(String key) {
+            return new Segment(key, increment(key, step), step);
+        }
+    }
 }
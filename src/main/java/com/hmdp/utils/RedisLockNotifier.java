@@ -0,0 +1,73 @@
+package com.hmdp.utils;
+
+import org.springframework.data.redis.connection.Message;
+import org.springframework.data.redis.connection.MessageListener;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.Resource;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 锁释放通知：有线程等待某个锁时才订阅它的释放频道，最后一个等待者离开后取消订阅
+ * 同一节点等待同一个锁的线程共用一个订阅，每条释放消息唤醒一个等待者
+ */
+@Component
+public class RedisLockNotifier implements MessageListener {
+
+    @Resource
+    private RedisMessageListenerContainer redisMessageListenerContainer;
+
+    /**
+     * 频道 -> 等待者
+     */
+    private final Map<String, Waiters> waiters = new ConcurrentHashMap<>();
+
+    private static class Waiters {
+        final Semaphore signal = new Semaphore(0);
+        int count;
+    }
+
+    void subscribe(String channel) {
+        waiters.compute(channel, (k, w) -> {
+            if (w == null) {
+                w = new Waiters();
+                redisMessageListenerContainer.addMessageListener(this, new ChannelTopic(k));
+            }
+            w.count++;
+            return w;
+        });
+    }
+
+    void unsubscribe(String channel) {
+        waiters.computeIfPresent(channel, (k, w) -> {
+            if (--w.count > 0) {
+                return w;
+            }
+            redisMessageListenerContainer.removeMessageListener(this, new ChannelTopic(k));
+            return null;
+        });
+    }
+
+    /**
+     * 等待释放通知
+     * @return true代表收到通知；false代表超时
+     */
+    boolean await(String channel, long timeoutMillis) throws InterruptedException {
+        Waiters w = waiters.get(channel);
+        return w != null && w.signal.tryAcquire(timeoutMillis, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public void onMessage(Message message, byte[] pattern) {
+        Waiters w = waiters.get(new String(message.getChannel(), StandardCharsets.UTF_8));
+        if (w != null) {
+            w.signal.release();
+        }
+    }
+}
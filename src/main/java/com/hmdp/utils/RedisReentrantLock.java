@@ -0,0 +1,213 @@
+package com.hmdp.utils;
+
+import cn.hutool.core.lang.UUID;
+import cn.hutool.core.thread.NamedThreadFactory;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import static com.hmdp.utils.RedisConstants.*;
+
+/**
+ * 可重入分布式锁：hash 的 field 为持有者（节点id + 线程id），value 为重入次数
+ * tryLock() 不指定租期时使用较短的看门狗租期，持有期间由所有锁共用的定时任务续期，节点宕机后租期到了自动释放
+ * 释放时发布通知，等待中的线程通过 RedisLockNotifier 被唤醒，而不是轮询 redis
+ */
+@Slf4j
+public class RedisReentrantLock implements ILock {
+
+    private static final String LOCK_KEY_PREFIX = "lock:";
+    private static final String NODE_ID = UUID.randomUUID().toString(true);
+
+    private static final DefaultRedisScript<Long> LOCK_SCRIPT;
+    private static final DefaultRedisScript<Long> UNLOCK_SCRIPT;
+    private static final DefaultRedisScript<Long> RENEW_SCRIPT;
+    static {
+        LOCK_SCRIPT = new DefaultRedisScript<>();
+        LOCK_SCRIPT.setLocation(new ClassPathResource("reentrant_lock.lua"));
+        LOCK_SCRIPT.setResultType(Long.class);
+        UNLOCK_SCRIPT = new DefaultRedisScript<>();
+        UNLOCK_SCRIPT.setLocation(new ClassPathResource("reentrant_unlock.lua"));
+        UNLOCK_SCRIPT.setResultType(Long.class);
+        RENEW_SCRIPT = new DefaultRedisScript<>();
+        RENEW_SCRIPT.setLocation(new ClassPathResource("reentrant_renew.lua"));
+        RENEW_SCRIPT.setResultType(Long.class);
+    }
+
+    /**
+     * 需要看门狗续期的锁，锁key + 持有者 -> 续期信息
+     */
+    private static final Map<String, Renewal> RENEWALS = new ConcurrentHashMap<>();
+    private static final ScheduledExecutorService WATCHDOG =
+            Executors.newSingleThreadScheduledExecutor(new NamedThreadFactory("lock-watchdog-", true));
+    static {
+        WATCHDOG.scheduleWithFixedDelay(RedisReentrantLock::renewAll,
+                LOCK_WATCHDOG_INTERVAL, LOCK_WATCHDOG_INTERVAL, TimeUnit.MILLISECONDS);
+    }
+
+    private static class Renewal {
+        final StringRedisTemplate stringRedisTemplate;
+        final String key;
+        final String owner;
+        // 本节点的重入次数，归零后停止续期
+        int holds = 1;
+
+        Renewal(StringRedisTemplate stringRedisTemplate, String key, String owner) {
+            this.stringRedisTemplate = stringRedisTemplate;
+            this.key = key;
+            this.owner = owner;
+        }
+    }
+
+    private final StringRedisTemplate stringRedisTemplate;
+    private final RedisLockNotifier notifier;
+    private final String key;
+    private final String channel;
+
+    public RedisReentrantLock(StringRedisTemplate stringRedisTemplate, String name) {
+        this(stringRedisTemplate, null, name);
+    }
+
+    /**
+     * @param notifier 为空时 tryLock(waitTime, ...) 退化为定时重试
+     */
+    public RedisReentrantLock(StringRedisTemplate stringRedisTemplate, RedisLockNotifier notifier, String name) {
+        this.stringRedisTemplate = stringRedisTemplate;
+        this.notifier = notifier;
+        this.key = LOCK_KEY_PREFIX + name;
+        this.channel = LOCK_UNLOCK_CHANNEL + name;
+    }
+
+    /**
+     * 尝试获取锁，持有期间看门狗自动续期
+     */
+    @Override
+    public boolean tryLock() {
+        return acquire(LOCK_WATCHDOG_LEASE, true);
+    }
+
+    /**
+     * 尝试获取锁，不续期
+     * @param timeoutSec 锁持有的超时时间，过期后自动释放
+     */
+    @Override
+    public boolean tryLock(long timeoutSec) {
+        return acquire(TimeUnit.SECONDS.toMillis(timeoutSec), false);
+    }
+
+    /**
+     * 尝试获取锁，被占用时订阅释放通知并挂起，直到被唤醒或超时
+     * 持有者宕机时没有通知，最多等到锁的剩余租期后重试
+     * @param leaseTime 小于0时使用看门狗
+     */
+    @Override
+    public boolean tryLock(long waitTime, long leaseTime, TimeUnit unit) {
+        if (notifier == null) {
+            return ILock.super.tryLock(waitTime, leaseTime, unit);
+        }
+        boolean watchdog = leaseTime < 0;
+        long leaseMillis = watchdog ? LOCK_WATCHDOG_LEASE : unit.toMillis(leaseTime);
+        Long ttl = tryAcquire(leaseMillis, watchdog);
+        if (ttl == null) {
+            return true;
+        }
+        long deadline = System.nanoTime() + unit.toNanos(waitTime);
+        notifier.subscribe(channel);
+        try {
+            // 失败后、订阅前释放的通知会丢失，订阅后再试一次
+            ttl = tryAcquire(leaseMillis, watchdog);
+            if (ttl == null) {
+                return true;
+            }
+            while (true) {
+                long remaining = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+                if (remaining <= 0) {
+                    return false;
+                }
+                // 持有者宕机时没有通知，最多等到锁的剩余租期
+                notifier.await(channel, ttl >= 0 ? Math.min(ttl, remaining) : remaining);
+                ttl = tryAcquire(leaseMillis, watchdog);
+                if (ttl == null) {
+                    return true;
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        } finally {
+            notifier.unsubscribe(channel);
+        }
+    }
+
+    private boolean acquire(long leaseMillis, boolean watchdog) {
+        return tryAcquire(leaseMillis, watchdog) == null;
+    }
+
+    // 获取成功返回 null，否则返回锁的剩余毫秒数
+    private Long tryAcquire(long leaseMillis, boolean watchdog) {
+        String owner = owner();
+        Long ttl = stringRedisTemplate.execute(
+                LOCK_SCRIPT,
+                Collections.singletonList(key),
+                owner, String.valueOf(leaseMillis)
+        );
+        if (ttl != null) {
+            return ttl;
+        }
+        RENEWALS.compute(key + "|" + owner, (k, renewal) -> {
+            if (renewal != null) {
+                renewal.holds++;
+                return renewal;
+            }
+            return watchdog ? new Renewal(stringRedisTemplate, key, owner) : null;
+        });
+        return null;
+    }
+
+    @Override
+    public void unlock() {
+        String owner = owner();
+        Long released = stringRedisTemplate.execute(
+                UNLOCK_SCRIPT,
+                Arrays.asList(key, channel),
+                owner
+        );
+        RENEWALS.computeIfPresent(key + "|" + owner,
+                (k, renewal) -> --renewal.holds > 0 && !Long.valueOf(1).equals(released) ? renewal : null);
+        if (released == null) {
+            log.warn("unlock {} by non-owner {}", key, owner);
+        }
+    }
+
+    private static String owner() {
+        return NODE_ID + ":" + Thread.currentThread().getId();
+    }
+
+    // 续期所有仍被持有的锁，续期失败说明锁已过期或被删除
+    private static void renewAll() {
+        RENEWALS.forEach((id, renewal) -> {
+            try {
+                Long ok = renewal.stringRedisTemplate.execute(
+                        RENEW_SCRIPT,
+                        Collections.singletonList(renewal.key),
+                        renewal.owner, LOCK_WATCHDOG_LEASE.toString()
+                );
+                if (!Long.valueOf(1).equals(ok)) {
+                    RENEWALS.remove(id, renewal);
+                    log.warn("lock {} lost by {}", renewal.key, renewal.owner);
+                }
+            } catch (Exception e) {
+                log.error("renew lock {} failed", renewal.key, e);
+            }
+        });
+    }
+}
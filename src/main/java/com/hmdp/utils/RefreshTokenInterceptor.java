@@ -1,46 +1,46 @@
 package com.hmdp.utils;
 
-import cn.hutool.core.bean.BeanUtil;
 import com.hmdp.dto.UserDTO;
-import org.springframework.data.redis.core.StringRedisTemplate;
-import org.springframework.web.servlet.HandlerInterceptor;
+import org.springframework.web.servlet.AsyncHandlerInterceptor;
 
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
-import java.util.Map;
-import java.util.concurrent.TimeUnit;
 
-import static com.hmdp.utils.RedisConstants.LOGIN_USER_TOKEN;
-import static com.hmdp.utils.RedisConstants.LOGIN_USER_TTL;
+public class RefreshTokenInterceptor implements AsyncHandlerInterceptor {
 
-public class RefreshTokenInterceptor implements HandlerInterceptor {
+    SessionStore sessionStore;
 
-    StringRedisTemplate stringRedisTemplate;
-
-    public RefreshTokenInterceptor(StringRedisTemplate stringRedisTemplate) {
-        this.stringRedisTemplate = stringRedisTemplate;
+    public RefreshTokenInterceptor(SessionStore sessionStore) {
+        this.sessionStore = sessionStore;
     }
 
 
     @Override
     public boolean preHandle(HttpServletRequest request, HttpServletResponse response, Object handler) throws Exception {
 
-        // get user in redis
+        // get user from the session store, ttl refreshed when needed
         String token = request.getHeader("authorization");
-        Map<Object, Object> userMap = stringRedisTemplate.opsForHash().entries(RedisConstants.LOGIN_USER_TOKEN + token);
-        if (token == null || userMap.isEmpty()) {
+        UserDTO userDTO = sessionStore.get(token);
+        if (userDTO == null) {
             return true;
         }
-        UserDTO userDTO = BeanUtil.fillBeanWithMap(userMap, new UserDTO(), false);
 
         // save user in ThreadLocal
         UserHolder.saveUser(userDTO);
-        stringRedisTemplate.expire(LOGIN_USER_TOKEN + token, LOGIN_USER_TTL, TimeUnit.MINUTES);
 
         return true;
     }
 
 
+    /**
+     * 异步请求在此释放 Web 线程，afterCompletion 会在异步分派的线程上执行
+     */
+    @Override
+    public void afterConcurrentHandlingStarted(HttpServletRequest request, HttpServletResponse response, Object handler) throws Exception {
+        UserHolder.removeUser();
+    }
+
+
     @Override
     public void afterCompletion(HttpServletRequest request, HttpServletResponse response, Object handler, Exception ex) throws Exception {
         UserHolder.removeUser();
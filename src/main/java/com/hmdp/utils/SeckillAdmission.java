@@ -0,0 +1,99 @@
+package com.hmdp.utils;
+
+import com.hmdp.entity.SeckillVoucher;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.Resource;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static com.hmdp.utils.RedisConstants.*;
+
+/**
+ * 秒杀准入控制：先过本节点按剩余库存设定的令牌桶，再过 redis 全局滑动窗口
+ * 大部分不可能抢到的请求在进程内就被拒绝
+ */
+@Component
+public class SeckillAdmission {
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+    @Resource
+    private SeckillVoucherCache seckillVoucherCache;
+
+    private static final DefaultRedisScript<Long> LIMIT_SCRIPT;
+    static {
+        LIMIT_SCRIPT = new DefaultRedisScript<>();
+        LIMIT_SCRIPT.setLocation(new ClassPathResource("seckill_limit.lua"));
+        LIMIT_SCRIPT.setResultType(Long.class);
+    }
+
+    private final Map<Long, VoucherAdmission> admissions = new ConcurrentHashMap<>();
+
+    private static class VoucherAdmission {
+        // 本节点看到的剩余库存估计
+        final AtomicLong remaining;
+        final TokenBucket bucket;
+        final long globalLimit;
+
+        VoucherAdmission(long stock) {
+            this.remaining = new AtomicLong(stock);
+            this.bucket = new TokenBucket(limit(stock, SECKILL_ADMIT_LOCAL_RATIO));
+            this.globalLimit = limit(stock, SECKILL_ADMIT_GLOBAL_RATIO);
+        }
+    }
+
+    /**
+     * 尝试准入
+     * @param voucherId
+     * @return 0 代表放行，否则为建议的重试等待毫秒数
+     */
+    public long tryAdmit(Long voucherId) {
+        SeckillVoucher seckillVoucher = seckillVoucherCache.get(voucherId);
+        // 未知或已售罄的券交给 seckillVoucher 处理
+        if (seckillVoucher == null || seckillVoucher.getStock() == null || seckillVoucherCache.isSoldOut(voucherId)) {
+            return 0;
+        }
+        VoucherAdmission admission = admissions.computeIfAbsent(voucherId,
+                id -> new VoucherAdmission(seckillVoucher.getStock()));
+
+        // local token bucket
+        long wait = admission.bucket.tryAcquire();
+        if (wait > 0) {
+            return wait;
+        }
+
+        // global sliding window
+        Long r = stringRedisTemplate.execute(
+                LIMIT_SCRIPT,
+                Collections.singletonList(SECKILL_LIMIT_KEY + voucherId),
+                String.valueOf(System.currentTimeMillis()),
+                SECKILL_LIMIT_WINDOW.toString(),
+                String.valueOf(admission.globalLimit),
+                Long.toHexString(ThreadLocalRandom.current().nextLong())
+        );
+        return r == null ? 0 : r;
+    }
+
+    /**
+     * 下单成功后按剩余库存缩小本地令牌桶
+     */
+    public void onOrder(Long voucherId) {
+        VoucherAdmission admission = admissions.get(voucherId);
+        if (admission == null) {
+            return;
+        }
+        long remaining = admission.remaining.decrementAndGet();
+        admission.bucket.resize(limit(remaining, SECKILL_ADMIT_LOCAL_RATIO));
+    }
+
+    private static long limit(long stock, double ratio) {
+        return Math.max(1, Math.min(SECKILL_ADMIT_MAX, (long) Math.ceil(stock * ratio)));
+    }
+}
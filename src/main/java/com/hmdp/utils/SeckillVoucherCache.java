@@ -0,0 +1,193 @@
+package com.hmdp.utils;
+
+import cn.hutool.json.JSONUtil;
+import com.hmdp.entity.SeckillVoucher;
+import org.springframework.data.redis.connection.Message;
+import org.springframework.data.redis.connection.MessageListener;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.Resource;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.IntConsumer;
+
+import static com.hmdp.utils.RedisConstants.*;
+
+/**
+ * 秒杀券的本地元数据快照与售罄标记，秒杀请求据此在本地拒绝售罄或不在时间范围内的请求
+ * 新增秒杀券、售罄与库存恢复通过 redis pub/sub 广播给所有节点
+ */
+@Component
+public class SeckillVoucherCache implements MessageListener {
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+    @Resource
+    private RedisMessageListenerContainer redisMessageListenerContainer;
+
+    /**
+     * voucherId -> 秒杀信息（开始、结束时间）
+     */
+    private final Map<Long, SeckillVoucher> vouchers = new ConcurrentHashMap<>();
+
+    /**
+     * 已售罄的 voucherId
+     */
+    private final Set<Long> soldOut = ConcurrentHashMap.newKeySet();
+
+    /**
+     * 秒杀券分片数的监听，用于按需启动分片队列的消费者
+     */
+    private final List<IntConsumer> shardsListeners = new CopyOnWriteArrayList<>();
+
+    @PostConstruct
+    private void init() {
+        redisMessageListenerContainer.addMessageListener(this, new ChannelTopic(SECKILL_VOUCHER_CHANNEL));
+        redisMessageListenerContainer.addMessageListener(this, new ChannelTopic(SECKILL_SOLD_OUT_CHANNEL));
+        redisMessageListenerContainer.addMessageListener(this, new ChannelTopic(SECKILL_SOLD_OUT_CLEAR_CHANNEL));
+    }
+
+    public SeckillVoucher get(Long voucherId) {
+        return vouchers.get(voucherId);
+    }
+
+    /**
+     * 只放入本节点，用于启动加载或查库回填，分片数未知时从 redis 读取
+     */
+    public void put(SeckillVoucher seckillVoucher) {
+        if (seckillVoucher.getShards() == null) {
+            String shards = stringRedisTemplate.opsForValue().get(SECKILL_SHARDS_KEY + seckillVoucher.getVoucherId());
+            seckillVoucher.setShards(shards == null ? 1 : Integer.parseInt(shards));
+        }
+        vouchers.put(seckillVoucher.getVoucherId(), seckillVoucher);
+        for (IntConsumer listener : shardsListeners) {
+            listener.accept(seckillVoucher.getShards());
+        }
+    }
+
+    /**
+     * 监听秒杀券的分片数，已加载的秒杀券立即回调一次
+     */
+    public void addShardsListener(IntConsumer listener) {
+        shardsListeners.add(listener);
+        for (SeckillVoucher seckillVoucher : vouchers.values()) {
+            listener.accept(seckillVoucher.getShards());
+        }
+    }
+
+    /**
+     * 新增秒杀券并清除售罄标记，广播给其他节点
+     */
+    public void add(SeckillVoucher seckillVoucher) {
+        put(seckillVoucher);
+        soldOut.remove(seckillVoucher.getVoucherId());
+        stringRedisTemplate.convertAndSend(SECKILL_VOUCHER_CHANNEL, JSONUtil.toJsonStr(seckillVoucher));
+    }
+
+    public boolean isSoldOut(Long voucherId) {
+        return soldOut.contains(voucherId);
+    }
+
+    /**
+     * 标记售罄，本节点首次标记时广播给其他节点
+     */
+    public void markSoldOut(Long voucherId) {
+        if (soldOut.add(voucherId)) {
+            stringRedisTemplate.convertAndSend(SECKILL_SOLD_OUT_CHANNEL, voucherId.toString());
+        }
+    }
+
+    /**
+     * 库存恢复后清除售罄标记，并广播给其他节点
+     */
+    public void clearSoldOut(Long voucherId) {
+        soldOut.remove(voucherId);
+        stringRedisTemplate.convertAndSend(SECKILL_SOLD_OUT_CLEAR_CHANNEL, voucherId.toString());
+    }
+
+    /**
+     * 库存key，不分片时为 seckill:stock:<id>
+     */
+    public static String stockKey(Long voucherId, int shards, int shard) {
+        return shards <= 1 ? SECKILL_STOCK_KEY + voucherId : shardPrefix(shard) + "stock:" + voucherId;
+    }
+
+    /**
+     * 已下单用户集合key，分片时每个分片一个集合，同一用户总是路由到同一分片
+     */
+    public static String orderKey(Long voucherId, int shards, int shard) {
+        return shards <= 1 ? SECKILL_ORDER_KEY + voucherId : shardPrefix(shard) + "order:" + voucherId;
+    }
+
+    /**
+     * 订单消息队列key，不分片时为 stream.orders，分片时为库存所在分片的队列
+     */
+    public static String streamKey(int shards, int shard) {
+        return shards <= 1 ? SECKILL_STREAM_KEY : shardStreamKey(shard);
+    }
+
+    /**
+     * 第 shard 个分片的订单消息队列key
+     */
+    public static String shardStreamKey(int shard) {
+        return shardPrefix(shard) + "stream";
+    }
+
+    /**
+     * 某个秒杀券的订单可能进入的队列
+     */
+    public static List<String> streamKeys(int shards) {
+        if (shards <= 1) {
+            return Collections.singletonList(SECKILL_STREAM_KEY);
+        }
+        List<String> keys = new ArrayList<>(shards);
+        for (int i = 0; i < shards; i++) {
+            keys.add(shardStreamKey(i));
+        }
+        return keys;
+    }
+
+    /**
+     * 所有订单消息队列
+     */
+    public static List<String> streamKeys() {
+        List<String> keys = new ArrayList<>(SECKILL_MAX_SHARDS + 1);
+        keys.add(SECKILL_STREAM_KEY);
+        for (int i = 0; i < SECKILL_MAX_SHARDS; i++) {
+            keys.add(shardStreamKey(i));
+        }
+        return keys;
+    }
+
+    // 同一分片的key使用相同的 hash tag
+    private static String shardPrefix(int shard) {
+        return SECKILL_SHARD_TAG + shard + "}:";
+    }
+
+    @Override
+    public void onMessage(Message message, byte[] pattern) {
+        String channel = new String(message.getChannel(), StandardCharsets.UTF_8);
+        String body = new String(message.getBody(), StandardCharsets.UTF_8);
+        if (SECKILL_SOLD_OUT_CHANNEL.equals(channel)) {
+            soldOut.add(Long.valueOf(body));
+            return;
+        }
+        if (SECKILL_SOLD_OUT_CLEAR_CHANNEL.equals(channel)) {
+            soldOut.remove(Long.valueOf(body));
+            return;
+        }
+        SeckillVoucher seckillVoucher = JSONUtil.toBean(body, SeckillVoucher.class);
+        put(seckillVoucher);
+        soldOut.remove(seckillVoucher.getVoucherId());
+    }
+}
@@ -0,0 +1,26 @@
+package com.hmdp.utils;
+
+import com.hmdp.dto.UserDTO;
+
+/**
+ * 登录态存储，由 hmdp.session.mode 选择实现
+ */
+public interface SessionStore {
+    /**
+     * 登录成功后生成 token
+     * @param user 登录用户
+     * @return token
+     */
+    String create(UserDTO user);
+
+    /**
+     * 根据 token 获取登录用户
+     * @return token 为空、无效、过期或已登出时返回 null
+     */
+    UserDTO get(String token);
+
+    /**
+     * 登出，之后所有节点都不再接受该 token
+     */
+    void revoke(String token);
+}
@@ -0,0 +1,240 @@
+package com.hmdp.utils;
+
+import cn.hutool.core.thread.NamedThreadFactory;
+import cn.hutool.core.util.RandomUtil;
+import cn.hutool.core.util.StrUtil;
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.hmdp.dto.UserDTO;
+import lombok.Data;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.data.redis.connection.Message;
+import org.springframework.data.redis.connection.MessageListener;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.annotation.Resource;
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.util.Base64;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import static com.hmdp.utils.RedisConstants.*;
+
+/**
+ * 无状态签名 token：base64url(用户信息 + 过期时间) + "." + base64url(HMAC-SHA256)，校验只消耗 CPU
+ * 登出的 token 按签名记入 redis 吊销集合并广播，本地布隆过滤器判断可能被吊销时才查 redis
+ * 布隆过滤器定时从吊销集合全量重建，同时清掉已过期的记录，漏收广播的节点最多延迟一个重建周期
+ */
+@Slf4j
+public class SignedTokenStore implements SessionStore, MessageListener {
+
+    private static final String ALGORITHM = "HmacSHA256";
+    private static final Base64.Encoder ENCODER = Base64.getUrlEncoder().withoutPadding();
+    private static final Base64.Decoder DECODER = Base64.getUrlDecoder();
+    private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper()
+            .setSerializationInclusion(JsonInclude.Include.NON_NULL)
+            .disable(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES);
+
+    /**
+     * token 中的用户信息、过期时间（秒）和随机id
+     */
+    @Data
+    static class Claims {
+        private Long id;
+        private String nickName;
+        private String icon;
+        private Long exp;
+        private String jti;
+    }
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+    @Resource
+    private RedisMessageListenerContainer redisMessageListenerContainer;
+
+    private final SecretKeySpec key;
+    // token 有效期（秒），吊销记录最多保留这么久
+    private final long ttlSeconds;
+    // Mac 不是线程安全的
+    private final ThreadLocal<Mac> macs;
+
+    private volatile BloomFilter revoked = newRevokedFilter();
+    // 重建中的过滤器，期间收到的吊销同时写入
+    private volatile BloomFilter building;
+
+    private final ScheduledExecutorService reloader =
+            Executors.newSingleThreadScheduledExecutor(new NamedThreadFactory("token-revoked-", true));
+
+    /**
+     * @param secret 签名密钥，所有节点必须相同
+     * @param ttlMinutes token 有效期（分钟），签名 token 无法续期，应取较短的值
+     */
+    public SignedTokenStore(String secret, long ttlMinutes) {
+        // 随机密钥会让 token 只在本节点有效且重启后全部失效
+        if (StrUtil.isBlank(secret)) {
+            throw new IllegalStateException("hmdp.session.secret is required when hmdp.session.mode=signed");
+        }
+        if (ttlMinutes <= 0) {
+            throw new IllegalStateException("hmdp.session.token-ttl must be positive");
+        }
+        this.ttlSeconds = TimeUnit.MINUTES.toSeconds(ttlMinutes);
+        this.key = new SecretKeySpec(secret.getBytes(StandardCharsets.UTF_8), ALGORITHM);
+        this.macs = ThreadLocal.withInitial(() -> {
+            try {
+                Mac mac = Mac.getInstance(ALGORITHM);
+                mac.init(key);
+                return mac;
+            } catch (GeneralSecurityException e) {
+                throw new IllegalStateException(e);
+            }
+        });
+    }
+
+    @PostConstruct
+    private void init() {
+        redisMessageListenerContainer.addMessageListener(this, new ChannelTopic(LOGIN_USER_REVOKE_CHANNEL));
+        reload();
+        reloader.scheduleWithFixedDelay(this::reload,
+                LOGIN_TOKEN_REVOKED_RELOAD, LOGIN_TOKEN_REVOKED_RELOAD, TimeUnit.SECONDS);
+    }
+
+    @PreDestroy
+    private void destroy() {
+        reloader.shutdownNow();
+    }
+
+    @Override
+    public String create(UserDTO user) {
+        Claims claims = new Claims();
+        claims.setId(user.getId());
+        claims.setNickName(user.getNickName());
+        claims.setIcon(user.getIcon());
+        claims.setExp(TimeUnit.MILLISECONDS.toSeconds(System.currentTimeMillis()) + ttlSeconds);
+        // 同一用户多次登录得到不同的 token，可以分别登出
+        claims.setJti(RandomUtil.randomString(8));
+        String payload;
+        try {
+            payload = ENCODER.encodeToString(OBJECT_MAPPER.writeValueAsBytes(claims));
+        } catch (IOException e) {
+            throw new IllegalStateException("token encode failed", e);
+        }
+        return payload + "." + sign(payload);
+    }
+
+    @Override
+    public UserDTO get(String token) {
+        Claims claims = verify(token);
+        if (claims == null) {
+            return null;
+        }
+        String signature = token.substring(token.lastIndexOf('.') + 1);
+        if (revoked.mightContain(signature)
+                && stringRedisTemplate.opsForZSet().score(LOGIN_TOKEN_REVOKED_KEY, signature) != null) {
+            return null;
+        }
+        UserDTO userDTO = new UserDTO();
+        userDTO.setId(claims.getId());
+        userDTO.setNickName(claims.getNickName());
+        userDTO.setIcon(claims.getIcon());
+        return userDTO;
+    }
+
+    /**
+     * 记入吊销集合直到 token 过期，并广播给所有节点
+     */
+    @Override
+    public void revoke(String token) {
+        Claims claims = verify(token);
+        if (claims == null) {
+            return;
+        }
+        String signature = token.substring(token.lastIndexOf('.') + 1);
+        stringRedisTemplate.opsForZSet().add(LOGIN_TOKEN_REVOKED_KEY, signature, claims.getExp());
+        revoked.put(signature);
+        stringRedisTemplate.convertAndSend(LOGIN_USER_REVOKE_CHANNEL, signature);
+    }
+
+    // 签名正确且未过期时返回 claims
+    private Claims verify(String token) {
+        if (StrUtil.isBlank(token)) {
+            return null;
+        }
+        int dot = token.lastIndexOf('.');
+        if (dot <= 0) {
+            return null;
+        }
+        String payload = token.substring(0, dot);
+        byte[] expected = macs.get().doFinal(payload.getBytes(StandardCharsets.UTF_8));
+        byte[] actual;
+        try {
+            actual = DECODER.decode(token.substring(dot + 1));
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+        if (!MessageDigest.isEqual(expected, actual)) {
+            return null;
+        }
+        Claims claims;
+        try {
+            claims = OBJECT_MAPPER.readValue(DECODER.decode(payload), Claims.class);
+        } catch (IOException | IllegalArgumentException e) {
+            return null;
+        }
+        Long exp = claims.getExp();
+        long now = TimeUnit.MILLISECONDS.toSeconds(System.currentTimeMillis());
+        // 超出当前有效期的 token（调小 token-ttl 之前签发的）一律拒绝，吊销记录才不必保留到它们过期
+        if (exp == null || exp <= now || exp > now + ttlSeconds) {
+            return null;
+        }
+        return claims;
+    }
+
+    private String sign(String payload) {
+        return ENCODER.encodeToString(macs.get().doFinal(payload.getBytes(StandardCharsets.UTF_8)));
+    }
+
+    private static BloomFilter newRevokedFilter() {
+        return new LocalBloomFilter(LOGIN_TOKEN_REVOKED_EXPECTED, LOGIN_TOKEN_REVOKED_FPP);
+    }
+
+    // 删除已过期的吊销记录，用剩余的重建布隆过滤器
+    private void reload() {
+        try {
+            long now = TimeUnit.MILLISECONDS.toSeconds(System.currentTimeMillis());
+            stringRedisTemplate.opsForZSet().removeRangeByScore(LOGIN_TOKEN_REVOKED_KEY, 0, now);
+            BloomFilter filter = newRevokedFilter();
+            building = filter;
+            Set<String> signatures = stringRedisTemplate.opsForZSet().rangeByScore(LOGIN_TOKEN_REVOKED_KEY, now, Double.MAX_VALUE);
+            if (signatures != null) {
+                filter.putAll(signatures);
+            }
+            revoked = filter;
+            building = null;
+        } catch (Exception e) {
+            building = null;
+            log.error("reload revoked tokens failed", e);
+        }
+    }
+
+    @Override
+    public void onMessage(Message message, byte[] pattern) {
+        String signature = new String(message.getBody(), StandardCharsets.UTF_8);
+        revoked.put(signature);
+        BloomFilter filter = building;
+        if (filter != null) {
+            filter.put(signature);
+        }
+    }
+}
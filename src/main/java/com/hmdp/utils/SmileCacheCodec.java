@@ -0,0 +1,45 @@
+package com.hmdp.utils;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
+
+import java.io.IOException;
+
+/**
+ * Jackson Smile 二进制编解码，一次解析直接得到目标类型
+ */
+public class SmileCacheCodec implements CacheCodec {
+
+    private final ObjectMapper objectMapper = new ObjectMapper(new SmileFactory())
+            .registerModule(new JavaTimeModule())
+            .setSerializationInclusion(JsonInclude.Include.NON_NULL)
+            .disable(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES);
+
+    /**
+     * smile 数据以 ":)\n" 头开始，用于读取时识别格式
+     */
+    public static boolean isSmile(byte[] bytes, int offset, int length) {
+        return length >= 3 && bytes[offset] == ':' && bytes[offset + 1] == ')' && bytes[offset + 2] == '\n';
+    }
+
+    @Override
+    public byte[] encode(Object value) {
+        try {
+            return objectMapper.writeValueAsBytes(value);
+        } catch (IOException e) {
+            throw new IllegalStateException("cache encode failed: " + value.getClass(), e);
+        }
+    }
+
+    @Override
+    public <R> R decode(byte[] bytes, int offset, int length, Class<R> type) {
+        try {
+            return objectMapper.readValue(bytes, offset, length, type);
+        } catch (IOException e) {
+            throw new IllegalStateException("cache decode failed: " + type, e);
+        }
+    }
+}
@@ -0,0 +1,167 @@
+package com.hmdp.utils;
+
+import cn.hutool.core.lang.UUID;
+import cn.hutool.core.thread.NamedThreadFactory;
+import cn.hutool.core.util.BooleanUtil;
+import cn.hutool.core.util.RandomUtil;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Primary;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.annotation.Resource;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import static com.hmdp.utils.RedisConstants.*;
+
+/**
+ * 本地生成id：时间戳（秒） + 机器id + 序列号，高32位与 RedisIdWorker 相同，两者的id按时间有序
+ * 机器id从 redis 租用并由心跳续期，续期失败或租约过期后停止生成，避免与接手该机器id的节点重复
+ * 心跳同时记录该机器id可能用到的最大时间戳，下一个持有者从该时间开始，时钟回拨不超过上限时沿用上次的时间戳
+ */
+@Slf4j
+@Primary
+@Component
+@ConditionalOnProperty(name = "hmdp.id.mode", havingValue = "snowflake")
+public class SnowflakeIdWorker implements IdWorker {
+
+    private static final int WORKER_BITS = 10;
+    private static final int SEQUENCE_BITS = RedisIdWorker.COUNT_BITS - WORKER_BITS;
+    private static final int MAX_WORKER = 1 << WORKER_BITS;
+    private static final long MAX_SEQUENCE = (1L << SEQUENCE_BITS) - 1;
+
+    private static final DefaultRedisScript<Long> RENEW_SCRIPT;
+    private static final DefaultRedisScript<Long> RELEASE_SCRIPT;
+    static {
+        RENEW_SCRIPT = new DefaultRedisScript<>();
+        RENEW_SCRIPT.setLocation(new ClassPathResource("worker_renew.lua"));
+        RENEW_SCRIPT.setResultType(Long.class);
+        RELEASE_SCRIPT = new DefaultRedisScript<>();
+        RELEASE_SCRIPT.setLocation(new ClassPathResource("unlock.lua"));
+        RELEASE_SCRIPT.setResultType(Long.class);
+    }
+
+    @Resource
+    private StringRedisTemplate stringRedisTemplate;
+
+    private final String owner = UUID.randomUUID().toString(true);
+
+    private final ScheduledExecutorService heartbeat =
+            Executors.newSingleThreadScheduledExecutor(new NamedThreadFactory("id-worker-", true));
+
+    private volatile long workerId = -1;
+    // 租约有效期截止时间（nanoTime）
+    private volatile long leaseDeadline;
+
+    // 已使用的最大时间戳，可能领先于本机时钟
+    private long lastSecond;
+    private long sequence;
+    // 观察到的本机时钟
+    private long lastClock;
+
+    @PostConstruct
+    private void init() {
+        lease();
+        heartbeat.scheduleWithFixedDelay(this::renew, ID_WORKER_HEARTBEAT, ID_WORKER_HEARTBEAT, TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    private void destroy() {
+        heartbeat.shutdownNow();
+        if (renew()) {
+            stringRedisTemplate.execute(RELEASE_SCRIPT,
+                    Collections.singletonList(ID_WORKER_KEY + workerId), owner);
+        }
+    }
+
+    @Override
+    public synchronized long nextId(String keyPrefix) {
+        if (workerId < 0 || System.nanoTime() - leaseDeadline > 0) {
+            throw new IllegalStateException("id worker lease lost");
+        }
+        long now = currentSecond();
+        if (lastClock - now > ID_CLOCK_BACKWARD_MAX) {
+            throw new IllegalStateException("clock moved backwards " + (lastClock - now) + "s");
+        }
+        lastClock = Math.max(lastClock, now);
+        // small rollbacks keep issuing from the last second, an exhausted sequence borrows the next one
+        if (now > lastSecond) {
+            lastSecond = now;
+            sequence = 0;
+        } else if (++sequence > MAX_SEQUENCE) {
+            lastSecond++;
+            sequence = 0;
+        }
+        return lastSecond << RedisIdWorker.COUNT_BITS | workerId << SEQUENCE_BITS | sequence;
+    }
+
+    // same clock as RedisIdWorker, local wall time taken as UTC
+    private static long currentSecond() {
+        return RedisIdWorker.currentTimestamp();
+    }
+
+    // 从随机位置开始找一个空闲的机器id
+    private void lease() {
+        int start = RandomUtil.randomInt(MAX_WORKER);
+        for (int i = 0; i < MAX_WORKER; i++) {
+            int id = (start + i) % MAX_WORKER;
+            long begin = System.nanoTime();
+            Boolean ok = stringRedisTemplate.opsForValue()
+                    .setIfAbsent(ID_WORKER_KEY + id, owner, ID_WORKER_LEASE, TimeUnit.MILLISECONDS);
+            if (BooleanUtil.isFalse(ok)) {
+                continue;
+            }
+            Object last = stringRedisTemplate.opsForHash().get(ID_WORKER_TIME_KEY, String.valueOf(id));
+            synchronized (this) {
+                lastSecond = Math.max(lastSecond, last == null ? 0 : Long.parseLong(last.toString()));
+                sequence = MAX_SEQUENCE;
+                leaseDeadline = begin + TimeUnit.MILLISECONDS.toNanos(ID_WORKER_LEASE);
+                workerId = id;
+            }
+            // 立即记录时间戳，心跳之前宕机时下一个持有者也不会重复
+            record(id);
+            log.info("id worker {} leased", id);
+            return;
+        }
+        throw new IllegalStateException("no free id worker");
+    }
+
+    // 续期并记录最后使用的时间戳，租约丢失时重新租用
+    private boolean renew() {
+        long id = workerId;
+        try {
+            long begin = System.nanoTime();
+            if (record(id)) {
+                leaseDeadline = begin + TimeUnit.MILLISECONDS.toNanos(ID_WORKER_LEASE);
+                return true;
+            }
+            log.warn("id worker {} lease lost", id);
+            workerId = -1;
+            lease();
+        } catch (Exception e) {
+            log.error("renew id worker {} failed", id, e);
+        }
+        return false;
+    }
+
+    private boolean record(long id) {
+        long last;
+        synchronized (this) {
+            // 租约过期前本节点还可能继续使用，下一个持有者从租期之后开始
+            last = Math.max(lastSecond, currentSecond()) + TimeUnit.MILLISECONDS.toSeconds(ID_WORKER_LEASE);
+        }
+        Long ok = stringRedisTemplate.execute(RENEW_SCRIPT,
+                Arrays.asList(ID_WORKER_KEY + id, ID_WORKER_TIME_KEY),
+                owner, ID_WORKER_LEASE.toString(), String.valueOf(id), String.valueOf(last));
+        return Long.valueOf(1).equals(ok);
+    }
+}
@@ -0,0 +1,53 @@
+package com.hmdp.utils;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 进程内令牌桶，容量即每秒补充的令牌数
+ */
+public class TokenBucket {
+
+    private long capacity;
+    private double tokens;
+    private long lastRefillNanos;
+
+    public TokenBucket(long capacity) {
+        this.capacity = Math.max(1, capacity);
+        this.tokens = this.capacity;
+        this.lastRefillNanos = System.nanoTime();
+    }
+
+    /**
+     * 尝试获取一个令牌
+     * @return 0 代表获取成功，否则为下一个令牌可用前需要等待的毫秒数
+     */
+    public synchronized long tryAcquire() {
+        refill();
+        if (tokens >= 1) {
+            tokens -= 1;
+            return 0;
+        }
+        double nanosPerToken = (double) TimeUnit.SECONDS.toNanos(1) / capacity;
+        return Math.max(1, TimeUnit.NANOSECONDS.toMillis((long) ((1 - tokens) * nanosPerToken)));
+    }
+
+    /**
+     * 调整容量，已有令牌不超过新容量
+     */
+    public synchronized void resize(long capacity) {
+        refill();
+        this.capacity = Math.max(1, capacity);
+        this.tokens = Math.min(tokens, this.capacity);
+    }
+
+    public synchronized long getCapacity() {
+        return capacity;
+    }
+
+    private void refill() {
+        long now = System.nanoTime();
+        double added = (now - lastRefillNanos) * (double) capacity / TimeUnit.SECONDS.toNanos(1);
+        tokens = Math.min(capacity, tokens + added);
+        lastRefillNanos = now;
+    }
+}
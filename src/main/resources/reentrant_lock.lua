@@ -0,0 +1,8 @@
+-- KEYS[1] 锁key，ARGV[1] 持有者id，ARGV[2] 租期毫秒
+-- 获取成功返回 nil，否则返回锁的剩余毫秒数
+if (redis.call('EXISTS', KEYS[1]) == 0 or redis.call('HEXISTS', KEYS[1], ARGV[1]) == 1) then
+    redis.call('HINCRBY', KEYS[1], ARGV[1], 1)
+    redis.call('PEXPIRE', KEYS[1], ARGV[2])
+    return nil
+end
+return redis.call('PTTL', KEYS[1])
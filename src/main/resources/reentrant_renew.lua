@@ -0,0 +1,7 @@
+-- KEYS[1] 锁key，ARGV[1] 持有者id，ARGV[2] 租期毫秒
+-- 返回 1 续期成功，0 已不再持有
+if (redis.call('HEXISTS', KEYS[1], ARGV[1]) == 1) then
+    redis.call('PEXPIRE', KEYS[1], ARGV[2])
+    return 1
+end
+return 0
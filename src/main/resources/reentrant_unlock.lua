@@ -0,0 +1,12 @@
+-- KEYS[1] 锁key，KEYS[2] 释放通知频道，ARGV[1] 持有者id
+-- 返回 nil 不是持有者，0 仍被重入持有，1 已释放
+if (redis.call('HEXISTS', KEYS[1], ARGV[1]) == 0) then
+    return nil
+end
+if (redis.call('HINCRBY', KEYS[1], ARGV[1], -1) > 0) then
+    return 0
+end
+redis.call('DEL', KEYS[1])
+-- 唤醒等待该锁的节点
+redis.call('PUBLISH', KEYS[2], '1')
+return 1
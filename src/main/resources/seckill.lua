@@ -0,0 +1,18 @@
+-- KEYS[1] 库存key（分片时为本用户路由到的分片），KEYS[2] 已下单用户集合key，KEYS[3] 订单消息队列key，分片时三者在同一个 slot
+-- ARGV[1] 用户id，ARGV[2] 优惠券id，ARGV[3] 订单id，ARGV[4] 是否分片库存
+-- 返回 0 成功，1 库存不足，2 重复下单，3 本分片库存不足（已占住用户，需探测其他分片）
+if (redis.call('SISMEMBER', KEYS[2], ARGV[1]) == 1) then
+    return 2
+end
+if (tonumber(redis.call('GET', KEYS[1]) or '0') <= 0) then
+    if (ARGV[4] == '1') then
+        redis.call('SADD', KEYS[2], ARGV[1])
+        return 3
+    end
+    return 1
+end
+redis.call('INCRBY', KEYS[1], -1)
+redis.call('SADD', KEYS[2], ARGV[1])
+-- 发送订单消息 XADD stream.orders * userId .. voucherId .. id ..
+redis.call('XADD', KEYS[3], '*', 'userId', ARGV[1], 'voucherId', ARGV[2], 'id', ARGV[3])
+return 0
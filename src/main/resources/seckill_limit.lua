@@ -0,0 +1,13 @@
+-- 全局滑动窗口限流
+-- KEYS[1] 限流key，ARGV[1] 当前毫秒，ARGV[2] 窗口毫秒，ARGV[3] 窗口内上限，ARGV[4] 请求唯一标识
+-- 返回 0 放行，否则为建议的重试等待毫秒数
+local now = tonumber(ARGV[1])
+local window = tonumber(ARGV[2])
+redis.call('ZREMRANGEBYSCORE', KEYS[1], 0, now - window)
+if (redis.call('ZCARD', KEYS[1]) < tonumber(ARGV[3])) then
+    redis.call('ZADD', KEYS[1], now, ARGV[4])
+    redis.call('PEXPIRE', KEYS[1], window)
+    return 0
+end
+local oldest = redis.call('ZRANGE', KEYS[1], 0, 0, 'WITHSCORES')
+return math.max(1, tonumber(oldest[2]) + window - now)
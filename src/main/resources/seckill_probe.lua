@@ -0,0 +1,10 @@
+-- 分片库存的兜底探测：本分片已空时逐个尝试其他分片，每次只访问一个分片，key 在同一个 slot
+-- KEYS[1] 其他分片的库存key，KEYS[2] 该分片的订单消息队列key
+-- ARGV[1] 用户id，ARGV[2] 优惠券id，ARGV[3] 订单id
+-- 返回 0 成功，1 该分片库存不足
+if (tonumber(redis.call('GET', KEYS[1]) or '0') <= 0) then
+    return 1
+end
+redis.call('INCRBY', KEYS[1], -1)
+redis.call('XADD', KEYS[2], '*', 'userId', ARGV[1], 'voucherId', ARGV[2], 'id', ARGV[3])
+return 0
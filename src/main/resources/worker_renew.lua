@@ -0,0 +1,8 @@
+-- KEYS[1] 机器id租约key，KEYS[2] 各机器id最后使用的时间戳，ARGV[1] 持有者，ARGV[2] 租期（毫秒），ARGV[3] 机器id，ARGV[4] 时间戳
+-- 返回 1 续期成功，0 租约已丢失
+if (redis.call('GET', KEYS[1]) ~= ARGV[1]) then
+    return 0
+end
+redis.call('PEXPIRE', KEYS[1], ARGV[2])
+redis.call('HSET', KEYS[2], ARGV[3], ARGV[4])
+return 1